@@ -0,0 +1,186 @@
+/*
+ * KBShape.java
+ * This file is part of ltur
+ *
+ * Copyright (C) 2018 giacomo
+ *
+ * ltur is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * ltur is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ltur. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package it.giacomobergami.ltur.benchmarks;
+
+import it.giacomobergami.ltur.structure.clauses.HornClause;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * Shapes of the knowledge bases used by the benchmarks. Each shape provides a KB with the given number of clauses,
+ * a query seeding the facts from which the propagation starts, and a goal to be checked for entailment.
+ */
+public enum KBShape {
+
+    /**
+     * One long implication chain a0 ⇒ a1 ⇒ ... ⇒ an, started by the query fact a0
+     */
+    CHAIN {
+        @Override
+        public ArrayList<HornClause> kb(int size, Random random) {
+            ArrayList<HornClause> kb = new ArrayList<>(size);
+            for (int i = 0; i<size; i++) {
+                kb.add(HornClause.classicHornClause(atom(i + 1), atom(i)));
+            }
+            return kb;
+        }
+
+        @Override
+        public HornClause[] query(int size, Random random) {
+            return new HornClause[]{HornClause.fact(atom(0))};
+        }
+
+        @Override
+        public String goal(int size) {
+            return atom(size);
+        }
+    },
+
+    /**
+     * Rules with wide bodies over a small set of query facts, so that each head is derived only after many
+     * counter decrements
+     */
+    FAN_IN {
+        @Override
+        public ArrayList<HornClause> kb(int size, Random random) {
+            ArrayList<HornClause> kb = new ArrayList<>(size);
+            int facts = facts(size);
+            for (int i = 0; i<size; i++) {
+                String[] body = new String[WIDTH];
+                for (int j = 0; j<WIDTH; j++) {
+                    body[j] = atom(random.nextInt(facts));
+                }
+                kb.add(HornClause.classicHornClause(atom(facts + i), body));
+            }
+            return kb;
+        }
+
+        @Override
+        public HornClause[] query(int size, Random random) {
+            return allFacts(facts(size));
+        }
+
+        @Override
+        public String goal(int size) {
+            return atom(facts(size) + size - 1);
+        }
+    },
+
+    /**
+     * Mostly negated-head clauses (constraints), each mentioning an atom derived by few rules and two atoms that are
+     * never derived: the constraints are decremented but never violated
+     */
+    CONSTRAINTS {
+        @Override
+        public ArrayList<HornClause> kb(int size, Random random) {
+            ArrayList<HornClause> kb = new ArrayList<>(size);
+            int facts = facts(size);
+            for (int i = 0; i<size; i++) {
+                if (i % 10 == 0) {
+                    kb.add(HornClause.classicHornClause(atom(facts + i), atom(random.nextInt(facts))));
+                } else {
+                    kb.add(HornClause.negatedHeadHornClause(atom(facts + size + random.nextInt(size)),
+                            atom(random.nextInt(facts + i)), atom(facts + size + random.nextInt(size))));
+                }
+            }
+            return kb;
+        }
+
+        @Override
+        public HornClause[] query(int size, Random random) {
+            return allFacts(facts(size));
+        }
+
+        @Override
+        public String goal(int size) {
+            return atom(facts(size) + (size - 1) / 10 * 10);
+        }
+    },
+
+    /**
+     * Random Horn clauses with at most three literals, with both positive and negated heads. The negated-head ones
+     * mention an atom that is never derived, so that the KB stays satisfiable
+     */
+    RANDOM_3HORN {
+        @Override
+        public ArrayList<HornClause> kb(int size, Random random) {
+            ArrayList<HornClause> kb = new ArrayList<>(size);
+            int atoms = Math.max(size / 2, 1);
+            for (int i = 0; i<size; i++) {
+                String[] body = new String[random.nextInt(3)];
+                for (int j = 0; j<body.length; j++) {
+                    body[j] = atom(random.nextInt(atoms));
+                }
+                if (random.nextInt(10) == 0) {
+                    kb.add(HornClause.negatedHeadHornClause(atom(atoms + random.nextInt(atoms)), body));
+                } else {
+                    kb.add(HornClause.classicHornClause(atom(random.nextInt(atoms)), body));
+                }
+            }
+            return kb;
+        }
+
+        @Override
+        public HornClause[] query(int size, Random random) {
+            HornClause[] query = new HornClause[Math.max(size / 100, 1)];
+            for (int i = 0; i<query.length; i++) {
+                query[i] = HornClause.fact(atom(random.nextInt(Math.max(size / 2, 1))));
+            }
+            return query;
+        }
+
+        @Override
+        public String goal(int size) {
+            return atom(Math.max(size / 2, 1) - 1);
+        }
+    };
+
+    private static final int WIDTH = 16;
+
+    public abstract ArrayList<HornClause> kb(int size, Random random);
+
+    public abstract HornClause[] query(int size, Random random);
+
+    /**
+     * Returns the atom checked by the entailment benchmark: the head of the last rule, which the query derives, except
+     * for the random clauses, where it is just one of the atoms
+     * @param size  Number of the clauses
+     * @return      The atom name
+     */
+    public abstract String goal(int size);
+
+    static String atom(int i) {
+        return "a" + i;
+    }
+
+    private static int facts(int size) {
+        return Math.max(size / 100, WIDTH);
+    }
+
+    private static HornClause[] allFacts(int n) {
+        HornClause[] query = new HornClause[n];
+        for (int i = 0; i<n; i++) {
+            query[i] = HornClause.fact(atom(i));
+        }
+        return query;
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * LTURBenchmark.java
+ * This file is part of ltur
+ *
+ * Copyright (C) 2018 giacomo
+ *
+ * ltur is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * ltur is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ltur. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package it.giacomobergami.ltur.benchmarks;
+
+import it.giacomobergami.ltur.LTUR;
+import it.giacomobergami.ltur.structure.CompiledKB;
+import it.giacomobergami.ltur.structure.LTURResult;
+import it.giacomobergami.ltur.structure.atoms.Atom;
+import it.giacomobergami.ltur.structure.clauses.HornClause;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.PrimitiveIterator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the LTUR phases, for each {@link KBShape}:
+ * <ul>
+ *     <li>initialize: creating an engine over the compiled KB, which propagates its facts</li>
+ *     <li>propagation: querying, and only checking the satisfiability, which the query computes eagerly</li>
+ *     <li>result: querying, and then accessing the whole assignment of the {@link LTURResult}, which the result only
+ *     computes when first accessed</li>
+ *     <li>entails: checking whether the query facts entail the goal of the shape, without propagating the query</li>
+ * </ul>
+ * The KB and the query are generated with a fixed seed, so that the numbers are reproducible. The benchmarks only use
+ * the public API of the engine.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LTURBenchmark {
+
+    @Param({"CHAIN", "FAN_IN", "CONSTRAINTS", "RANDOM_3HORN"})
+    public KBShape shape;
+
+    @Param({"1000", "100000"})
+    public int size;
+
+    private CompiledKB kb;
+    private HornClause[] query;
+    private Atom goal;
+
+    /**
+     * Engine queried at each invocation
+     */
+    private LTUR engine;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        Random random = new Random(42);
+        kb = CompiledKB.compile(shape.kb(size, random));
+        query = shape.query(size, random);
+        goal = new Atom(shape.goal(size));
+        engine = new LTUR(kb);
+    }
+
+    @Benchmark
+    public LTUR initialize() {
+        return new LTUR(kb);
+    }
+
+    @Benchmark
+    public boolean propagation() {
+        return engine.query(query).isSatisfiable();
+    }
+
+    @Benchmark
+    public int result() {
+        LTURResult result = engine.query(query);
+        int atoms = 0;
+        for (PrimitiveIterator.OfInt i = result.trueAtomIds(); i.hasNext(); ) {
+            atoms += i.nextInt();
+        }
+        for (PrimitiveIterator.OfInt i = result.falseAtomIds(); i.hasNext(); ) {
+            atoms += i.nextInt();
+        }
+        return atoms;
+    }
+
+    @Benchmark
+    public boolean entails() {
+        return engine.entails(goal, query);
+    }
+}
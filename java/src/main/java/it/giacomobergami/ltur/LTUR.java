@@ -20,19 +20,32 @@
 
 package it.giacomobergami.ltur;
 
-import com.google.common.collect.HashMultimap;
+import it.giacomobergami.ltur.metrics.MetricsListener;
+import it.giacomobergami.ltur.metrics.QueryMetrics;
+import it.giacomobergami.ltur.structure.Agenda;
+import it.giacomobergami.ltur.structure.CompiledKB;
+import it.giacomobergami.ltur.structure.Footprint;
+import it.giacomobergami.ltur.structure.IntList;
 import it.giacomobergami.ltur.structure.ValMap;
+import it.giacomobergami.ltur.structure.atoms.Atom;
+import it.giacomobergami.ltur.structure.atoms.AtomTable;
+import it.giacomobergami.ltur.structure.graph.DeltaGraph;
 import it.giacomobergami.ltur.structure.graph.LTURGraph;
 import it.giacomobergami.ltur.structure.LTURResult;
-import it.giacomobergami.ltur.structure.atoms.Atom;
-import it.giacomobergami.ltur.structure.atoms.Bot;
-import it.giacomobergami.ltur.structure.atoms.IAtom;
-import it.giacomobergami.ltur.structure.atoms.Top;
 import it.giacomobergami.ltur.structure.clauses.GraphClause;
 import it.giacomobergami.ltur.structure.clauses.HornClause;
 
 import java.util.*;
-import java.util.function.BiFunction;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.IntConsumer;
 
 /**
  * Hypothesis: facts are always assumed true. The KB only contains the (grounded) rules that connect with
@@ -40,216 +53,1509 @@ import java.util.function.BiFunction;
  *
  * This inference algorithm will be used to store the outcome of the learning phase stating whether the patterns within
  * the data are negative or not.
+ *
+ * The KB is compiled once ({@link CompiledKB}) and propagated by each engine created on it. The engines created by
+ * {@link BaseModel#newEngine()} start instead from a copy of the KB propagation, which the base model performs once.
+ * Clauses can be then asserted and retracted incrementally: each change of the propagation state is recorded on a
+ * trail, so that {@link #pop()} and {@link #retractClause(HornClause)} only undo what was changed after the checkpoint
+ * or the assertion. The trail starts after the KB propagation: retracting a clause of the KB (or restoring it)
+ * propagates the KB again from its compiled counters. Each query asserts its own clauses within a checkpoint, and then
+ * pops it.
+ *
+ * An engine is not thread safe. Many queries can be evaluated concurrently via {@link #queryAll(List)}, where each
+ * worker thread uses its own copy of the propagation state while sharing the same compiled KB. A single large
+ * propagation can instead be split among many threads via {@link #setParallelism(int)}, whose threads are stopped
+ * by {@link #close()}.
  */
-public class LTUR {
+public class LTUR implements AutoCloseable {
+
+    /**
+     * Counter of the retracted clauses: it is never decremented to zero
+     */
+    private static final int INACTIVE = Integer.MAX_VALUE / 2;
+
+    /*
+     * Kinds of the trail entries
+     */
+    private static final int DECREMENT = 0;
+    private static final int PROPAGATE = 1;
+    private static final int ASSIGN = 2;
+    private static final int UNSATISFY = 3;
+    private static final int EXPECT = 4;
+
+    /**
+     * Minimum number of the clauses to be propagated at once for the propagation to go parallel
+     */
+    private static final int PARALLEL_FRONTIER = 1024;
+
+    /**
+     * Minimum number of the frontier clauses (or trail entries) handled by each parallel task
+     */
+    private static final int PARALLEL_CHUNK = 256;
+
+    private final CompiledKB kb;
+
+    /**
+     * Propagation state of the KB alone the engine started from, or null if the engine propagated the KB itself
+     */
+    private final BaseModel base;
+    private final LTURGraph graph;
+
+    /**
+     * Atoms of the KB, extended with the ones that only appear in the clauses that are not in the KB
+     */
+    private AtomTable atoms;
+
+    /**
+     * Clauses asserted on top of the KB, in assertion order. Their identifiers follow the ones of the KB
+     */
+    private ArrayList<GraphClause> gcs;
+
+    /**
+     * Trail size before the activation of each asserted clause
+     */
+    private IntList marks;
+
+    /**
+     * Clauses (either from the KB or asserted) that were retracted
+     */
+    private BitSet retracted;
+    private DeltaGraph delta;
+
+    /**
+     * Clauses waiting for propagation
+     */
+    private Agenda S;
 
-    private Set<GraphClause> S;
-    LTURGraph graph;
-    HashSet<GraphClause> gcs;
-    HashMap<GraphClause, Integer> vMap;
-    ValMap val;
+    /**
+     * Number of the negated atoms of each clause that were not yet propagated, indexed by clause identifier
+     */
+    private int[] vMap;
+
+    /**
+     * Pairs (kind, value) recording each change of the propagation state
+     */
+    private IntList trail;
+
+    /**
+     * Sequence of the asserted clauses (c) and of the retracted ones (-c-1), and the length of such sequence and the
+     * number of the interned atoms at each {@link #push()}
+     */
+    private IntList log;
+    private IntList checkpoints;
+    private IntList atomCheckpoints;
+
+    /**
+     * Atoms that were already propagated
+     */
+    private BitSet propagated;
+
+    /**
+     * Clause whose propagation made each atom true: only meaningful for the atoms that are currently propagated
+     */
+    private int[] reasons;
+    private BitSet unsatisfied;
+    private HashSet<Integer> expectedAtoms;
+    private ValMap val;
+
+    /**
+     * Pool propagating each frontier in parallel, or null for the sequential propagation, and whether it was created
+     * by the engine, which then has to shut it down
+     */
+    private ForkJoinPool pool;
+    private boolean ownsPool;
+
+    /**
+     * Decrements of the clause counters performed by the parallel propagation, and not yet subtracted from vMap
+     */
+    private AtomicIntegerArray decrements;
+
+    /**
+     * Atoms claimed by the current parallel level, one bit each
+     */
+    private AtomicLongArray claimed;
+
+    /**
+     * Number of the levels propagated in parallel, only read by the tests
+     */
+    long parallelLevels;
+
+    /**
+     * Receives the metrics of each query, or null if the queries are not measured
+     */
+    private MetricsListener listener;
+
+    /**
+     * Whether the phases of the current query are being timed, and the time they took so far
+     */
+    private boolean timing;
+    private long propagationNanos;
+
+    /**
+     * Cache of the query results, or null
+     */
+    private QueryCache cache;
+
+    /**
+     * Incremented at each change of the engine state, identifying the cached results that are still valid
+     */
+    private long version;
+
+    /**
+     * Propagation state the queries start from, from which their results are computed, and the version it was
+     * copied at: it is copied again by the first query following each change of the engine state
+     */
+    private LazyResult.Base queryBase;
+    private long queryBaseVersion;
+
+    /**
+     * State of the {@link GoalSearch}es, reused across them: counters of the collected clauses, epoch at which each
+     * clause was collected and each atom was reached or derived, and asserted clauses by positive atom along with the
+     * version they were indexed at
+     */
+    private int[] goalCounters = new int[0];
+    private int[] goalClauses = new int[0];
+    private int[] goalReached = new int[0];
+    private int[] goalDerived = new int[0];
+    private int goalEpoch;
+    private HashMap<Integer, IntList> assertedDefinitions;
+    private long assertedDefinitionsVersion;
 
     public LTUR() {
-        gcs = new HashSet<>();
-        graph = new LTURGraph();
-        vMap = new HashMap<>();
+        this(CompiledKB.EMPTY);
+    }
+
+    public LTUR(CompiledKB kb) {
+        this(kb, null);
+        vMap = new int[kb.clauseCount()];
+        for (int i = 0; i<vMap.length; i++) {
+            vMap[i] = kb.counter(i);
+        }
+        trail = new IntList();
+        propagated = new BitSet();
+        reasons = new int[atoms.size()];
+        unsatisfied = new BitSet();
+        expectedAtoms = new HashSet<>();
         val = new ValMap();
+        propagateKB();
+        // The trail only records the changes following the KB propagation, which resetToKB() repeats when needed
+        trail = new IntList();
     }
 
-    protected void initialize(Collection<HornClause> clauses) {
-        gcs.clear();
-        graph.clear();
-        vMap.clear();
-        val.clear();
-        graph.dg.addNode(Top.instance());
-        graph.dg.addNode(Bot.instance());
-        for (HornClause hc : clauses) {
-            GraphClause gc = hc.asGraphClause();
-            Collection<Atom> bv = gc.basicVariables();
-            bv.forEach(graph.dg::addNode);
-            Atom pos = gc.positiveVariable();
-            if (pos == null) {
-                for (Atom a : bv) {
-                    graph.dg.putEdgeValue(a, Bot.instance(), gc);
-                }
+    /**
+     * Creates an engine starting from the propagation state of the base model
+     * @param base  Propagation state of the KB alone
+     */
+    private LTUR(BaseModel base) {
+        this(base.kb, base);
+        base.copyTo(this);
+    }
+
+    /**
+     * Initializes the state that does not depend on the KB propagation
+     */
+    private LTUR(CompiledKB kb, BaseModel base) {
+        this.kb = kb;
+        this.base = base;
+        graph = kb.graph();
+        atoms = new AtomTable(kb.atoms());
+        gcs = new ArrayList<>();
+        marks = new IntList();
+        retracted = new BitSet();
+        delta = new DeltaGraph();
+        S = new Agenda(Agenda.Policy.FIFO, this::fanOut);
+        log = new IntList();
+        checkpoints = new IntList();
+        atomCheckpoints = new IntList();
+    }
+
+    /**
+     * Copies the propagation state of the engine, sharing its compiled KB
+     * @param other     Engine to be copied
+     */
+    private LTUR(LTUR other) {
+        kb = other.kb;
+        base = other.base;
+        graph = other.graph;
+        atoms = other.atoms.copy();
+        gcs = new ArrayList<>(other.gcs);
+        marks = new IntList(other.marks);
+        retracted = (BitSet) other.retracted.clone();
+        delta = new DeltaGraph(other.delta);
+        S = new Agenda(other.S.policy(), this::fanOut);
+        vMap = other.vMap.clone();
+        trail = new IntList(other.trail);
+        log = new IntList(other.log);
+        checkpoints = new IntList(other.checkpoints);
+        atomCheckpoints = new IntList(other.atomCheckpoints);
+        propagated = (BitSet) other.propagated.clone();
+        reasons = other.reasons.clone();
+        unsatisfied = (BitSet) other.unsatisfied.clone();
+        expectedAtoms = new HashSet<>(other.expectedAtoms);
+        val = new ValMap(other.val);
+        listener = other.listener;
+        cache = other.cache;
+        version = other.version;
+        queryBase = other.queryBase;
+        queryBaseVersion = other.queryBaseVersion;
+    }
+
+    /**
+     * Sets the number of the threads propagating the consequences of the clauses. When many clauses are waiting for
+     * propagation, the atoms they make true are propagated one level at a time, splitting each level among the
+     * threads. The result is the same as the one of the sequential propagation, except for the choices that already
+     * depend on the propagation order: the reasons of {@link #explain(int)}, and the atom held responsible when a clause
+     * with no positive atom becomes unsatisfied. The engine is still not thread safe.
+     * @param parallelism   Number of the threads, or 1 for the sequential propagation
+     */
+    public void setParallelism(int parallelism) {
+        close();
+        pool = parallelism > 1 ? new ForkJoinPool(parallelism) : null;
+        ownsPool = true;
+    }
+
+    /**
+     * Same as {@link #setParallelism(int)}, using the threads of a pool provided by the caller, which is not shut down
+     * by the engine
+     * @param pool      Pool, or null for the sequential propagation
+     */
+    public void setParallelism(ForkJoinPool pool) {
+        close();
+        this.pool = pool;
+        ownsPool = false;
+    }
+
+    /**
+     * Shuts down the pool created by {@link #setParallelism(int)}, going back to the sequential propagation. The
+     * engine can still be used afterwards
+     */
+    @Override
+    public void close() {
+        if (pool != null && ownsPool) pool.shutdown();
+        pool = null;
+    }
+
+    /**
+     * Sets the order in which the clauses waiting for propagation are visited. The results only depend on such order
+     * for the same choices affected by {@link #setParallelism(int)}. The default is {@link Agenda.Policy#FIFO}, which
+     * is also the order of the KB propagation performed by a {@link BaseModel}
+     * @param policy    Order of the agenda
+     */
+    public void setAgendaPolicy(Agenda.Policy policy) {
+        S = new Agenda(policy, this::fanOut);
+    }
+
+    /**
+     * Returns the memory taken by the compiled KB and by the engine state: asserted clauses (gcs), clause counters
+     * (vMap), assignments (ValMap), atoms introduced by the asserted clauses, delta graph, trail, propagation state,
+     * and the copy of the propagation state the query results are computed from ("query base"). The compiled KB, and
+     * the {@link BaseModel} the engine was created from ("shared base model"), are shared by the other engines created
+     * over them, so they should be counted only once
+     * @return
+     */
+    public Footprint footprint() {
+        long clauses = Footprint.object(4, 1) + Footprint.referenceArray(gcs.size());
+        for (GraphClause gc : gcs) {
+            clauses += gc.heapBytes();
+        }
+        Footprint f = kb.footprint()
+                .add("atom names", atoms.heapBytes(), 0)
+                .add("asserted clauses", clauses, 0)
+                .add("vMap", Footprint.array(vMap.length, 4), 0)
+                .add("ValMap", val.heapBytes(), 0)
+                .add("delta graph", delta.heapBytes(), 0)
+                .add("trail", trail.heapBytes() + marks.heapBytes() + log.heapBytes() + checkpoints.heapBytes()
+                        + atomCheckpoints.heapBytes(), 0)
+                .add("propagation state", Footprint.bitSet(propagated.size()) + Footprint.bitSet(retracted.size())
+                        + Footprint.bitSet(unsatisfied.size()) + Footprint.array(reasons.length, 4)
+                        + Footprint.object(0, 1) + Footprint.hashMap(expectedAtoms.size(), Footprint.object(4, 0))
+                        + S.heapBytes(), 0);
+        if (queryBase != null) {
+            f.add("query base", queryBase.heapBytes(), 0);
+        }
+        if (base != null) {
+            f.add("shared base model", base.heapBytes(), 0);
+        }
+        if (decrements != null) {
+            f.add("parallel propagation", Footprint.object(0, 1) + Footprint.array(decrements.length(), 4)
+                    + Footprint.object(0, 1) + Footprint.array(claimed.length(), 8), 0);
+        }
+        return f;
+    }
+
+    /**
+     * Sets the listener receiving the metrics of each {@link #query(HornClause...)}, including the ones evaluated by
+     * {@link #queryAll(List)}. The queries answered by the query cache are not evaluated, and are only reported via
+     * {@link MetricsListener#onCacheHit()}. With no listener, the queries are not measured at all
+     * @param listener  Listener, or null to stop measuring the queries
+     */
+    public void setMetricsListener(MetricsListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Caches the results of {@link #query(HornClause...)}, so that repeating a query (with the clauses in any order)
+     * returns the result computed before. The cache is invalidated by any assertion, retraction or pop
+     * @param maxEntries    Number of the cached results, after which the least recently used ones are evicted
+     * @return              The cache, providing the hit and miss statistics
+     */
+    public QueryCache enableQueryCache(int maxEntries) {
+        cache = new QueryCache(maxEntries);
+        return cache;
+    }
+
+    public void disableQueryCache() {
+        cache = null;
+    }
+
+    /**
+     * Returns the cache of the query results
+     * @return  The cache, or null if it was not enabled
+     */
+    public QueryCache queryCache() {
+        return cache;
+    }
+
+    /**
+     * Same as {@link #assertClause(HornClause)}
+     * @param hc    Clause to be added
+     */
+    public void update(HornClause hc) {
+        assertClause(hc);
+    }
+
+    /**
+     * Adds a clause on top of the KB, and propagates its consequences
+     * @param hc    Clause to be added
+     */
+    public void assertClause(HornClause hc) {
+        add(hc);
+        changed();
+    }
+
+    private void add(HornClause hc) {
+        int id = kb.clauseCount() + gcs.size();
+        gcs.add(hc.asGraphClause().intern(atoms));
+        log.add(id);
+        activate(id);
+    }
+
+    /**
+     * Removes a clause, either asserted or from the KB, and undoes its consequences. The propagation state is rewound
+     * to the clause assertion, and the following assertions are propagated again. For the clauses of the KB, the KB is
+     * propagated again from its compiled counters, and then all the assertions.
+     * @param hc    Clause to be removed
+     * @return      Whether the clause was found
+     */
+    public boolean retractClause(HornClause hc) {
+        int c = find(hc);
+        if (c == AtomTable.NONE) return false;
+        log.add(-c - 1);
+        retracted.set(c);
+        if (c < kb.clauseCount()) {
+            resetToKB();
+            replay(0);
+        } else {
+            int k = c - kb.clauseCount();
+            rewind(marks.get(k));
+            replay(k);
+        }
+        changed();
+        return true;
+    }
+
+    /**
+     * Looks the clause up among the asserted clauses, from the last one, and then among the ones of the KB via their
+     * literal index. The clause atoms are not interned
+     * @param hc    Clause to be found
+     * @return      The identifier of a clause with the same literals that was not retracted, or {@link AtomTable#NONE}
+     */
+    private int find(HornClause hc) {
+        ArrayList<Atom> variables = hc.asGraphClause().getVariables();
+        int[] literals = new int[variables.size()];
+        for (int i = 0; i<literals.length; i++) {
+            Atom a = variables.get(i);
+            int id = atoms.id(a.name);
+            // No clause contains an atom that was never interned
+            if (id == AtomTable.NONE) return AtomTable.NONE;
+            literals[i] = AtomTable.literal(id, a.negated);
+        }
+        for (int i = gcs.size() - 1; i>=0; i--) {
+            if (!retracted.get(kb.clauseCount() + i) && Arrays.equals(gcs.get(i).getLiterals(), literals))
+                return kb.clauseCount() + i;
+        }
+        for (int c : kb.clausesWithLiterals(literals)) {
+            if (!retracted.get(c)) return c;
+        }
+        return AtomTable.NONE;
+    }
+
+    /**
+     * Creates a checkpoint, to which {@link #pop()} is going to return
+     */
+    public void push() {
+        checkpoints.add(log.size());
+        atomCheckpoints.add(atoms.size());
+    }
+
+    /**
+     * Undoes the assertions and the retractions performed since the last {@link #push()}, forgetting the atoms they
+     * interned
+     */
+    public void pop() {
+        if (restore()) changed();
+    }
+
+    /**
+     * Same as {@link #pop()}, without invalidating the cached results
+     * @return  Whether any assertion or retraction was undone
+     */
+    private boolean restore() {
+        if (checkpoints.isEmpty())
+            throw new RuntimeException("Unexpected error: pop without a matching push");
+        int from = checkpoints.pop();
+        int interned = atomCheckpoints.pop();
+        if (from == log.size()) {
+            forget(interned);
+            return false;
+        }
+        int kept = gcs.size();
+        int first = gcs.size();
+        IntList restoredKB = new IntList();
+        for (int i = log.size() - 1; i>=from; i--) {
+            int op = log.get(i);
+            if (op >= 0) {
+                kept = op - kb.clauseCount();
+                first = Math.min(first, kept);
             } else {
-                if (bv.size() == 1) {
-                    graph.dg.putEdgeValue(Top.instance(), pos, gc);
-                } else {
-                    for (Atom a : gc.getVariables()) {
-                        if (a.isNegated())
-                            graph.dg.putEdgeValue(a.rawAtom(), pos, gc);
-                    }
-                }
+                int c = -op - 1;
+                retracted.clear(c);
+                if (c < kb.clauseCount()) restoredKB.add(c);
+                else first = Math.min(first, c - kb.clauseCount());
             }
-            gcs.add(gc);
-            vMap.put(gc, gc.v());
-            //gc.initializeMap(val);
         }
-        S = GraphClause.getInitialSet(gcs);
+        log.truncate(from);
+        if (!restoredKB.isEmpty()) {
+            resetToKB();
+            first = 0;
+        } else if (first < gcs.size()) {
+            rewind(marks.get(first));
+        }
+        while (gcs.size() > kept) {
+            gcs.remove(gcs.size() - 1);
+        }
+        marks.truncate(kept);
+        replay(first);
+        forget(interned);
+        return true;
     }
 
-    public void update(HornClause hc) {
-        GraphClause gc = hc.asGraphClause();
-        gcs.add(gc);
-        vMap.put(gc, 0);
-        //gc.initializeMap(val);
-        S = GraphClause.getInitialSet(S, gc);
+    /**
+     * Removes the atoms interned after the first n ones, which no clause refers to anymore. The reasons are shrunk
+     * only when much larger than needed, so that the following queries do not grow them again
+     * @param n     Number of the atoms to be kept
+     */
+    private void forget(int n) {
+        if (n >= atoms.size()) return;
+        atoms.truncate(n);
+        if (reasons.length > 2 * n) {
+            reasons = Arrays.copyOf(reasons, n);
+        }
     }
 
     /**
+     * Invalidates the cached results, as the engine state changed
+     */
+    private void changed() {
+        version++;
+        if (cache != null) cache.invalidate();
+    }
+
+    /**
+     * Legacy entry point, compiling the KB at each query. The KB collection is not modified.
      *
      * @param kb            Clauses representing the Knowledge Base
      * @param clauses       Clauses representing the actual query
      * @return              Satisfiability information
      */
     public LTURResult query(Collection<HornClause> kb, HornClause... clauses) {
+        LTUR engine = new LTUR(CompiledKB.compile(kb));
+        engine.listener = listener;
+        return engine.query(clauses);
+    }
 
-        // Adding the clauses to the KB and initializing LTUR
-        // TODO: please note that we can always add only the clauses of interest for LTUR and then remove them.
+    /**
+     *
+     * @param clauses       Clauses representing the actual query
+     * @return              Satisfiability information of the KB, the asserted clauses and the query
+     */
+    public LTURResult query(HornClause... clauses) {
+        if (cache == null) return evaluate(clauses);
+        LTURResult result = cache.get(version, clauses, kb.clauseCount() + gcs.size());
+        if (result == null) {
+            result = evaluate(clauses);
+            cache.put(version, clauses, result);
+        } else if (listener != null) {
+            listener.onCacheHit();
+        }
+        return result;
+    }
+
+    /**
+     * Evaluates the query, without looking for it in the cache
+     */
+    private LTURResult evaluate(HornClause... clauses) {
+        if (listener != null) return measuredQuery(clauses);
+        LazyResult.Base base = queryBase();
+        int mark = trail.size();
+        int firstQueryClause = propagate(clauses);
+        try {
+            return result(base, firstQueryClause, mark, null);
+        } finally {
+            restore();
+        }
+    }
+
+    /**
+     * Same as {@link #query(HornClause...)}, restricted to the slice of the KB that the query can reach: the query
+     * clauses, and the clauses labelling the edges reachable from their atoms, including the constraints reached
+     * through the edges to \u22a5. As the KB was already propagated, collecting the result only visits the slice. The
+     * result reports the clauses of the slice and the assignment of their atoms, and it is satisfiable if the slice
+     * is: the conflicts among the clauses that the query cannot reach are ignored. Sliced results are not cached
+     * @param clauses       Clauses representing the actual query
+     * @return              Satisfiability information of the slice
+     */
+    public LTURResult sliceQuery(HornClause... clauses) {
+        LazyResult.Base base = queryBase();
+        int mark = trail.size();
+        int firstQueryClause = propagate(clauses);
+        try {
+            return result(base, firstQueryClause, mark, slice(firstQueryClause));
+        } finally {
+            restore();
+        }
+    }
+
+    /**
+     * Collects the query clauses and the clauses that are not retracted labelling the edges reachable from the atoms
+     * of the query clauses
+     * @param firstQueryClause  The identifier of the first query clause
+     * @return                  The clause identifiers
+     */
+    private BitSet slice(int firstQueryClause) {
+        BitSet slice = new BitSet();
+        BitSet reached = new BitSet();
+        IntList queue = new IntList();
+        for (int c = firstQueryClause, n = kb.clauseCount() + gcs.size(); c<n; c++) {
+            slice.set(c);
+            for (int l : gcs.get(c - kb.clauseCount()).getLiterals()) {
+                reach(AtomTable.atomOf(l), reached, queue);
+            }
+        }
+        for (int i = 0; i<queue.size(); i++) {
+            int x = queue.get(i);
+            for (int e = graph.begin(x), end = graph.end(x); e < end; e++) {
+                if (retracted.get(graph.clause(e))) continue;
+                slice.set(graph.clause(e));
+                reach(graph.target(e), reached, queue);
+            }
+            IntList adj = delta.isEmpty() ? null : delta.adjacencyList(x);
+            for (int e = 0, end = adj == null ? 0 : adj.size(); e < end; e += 2) {
+                if (retracted.get(adj.get(e + 1))) continue;
+                slice.set(adj.get(e + 1));
+                reach(adj.get(e), reached, queue);
+            }
+        }
+        return slice;
+    }
+
+    private static void reach(int x, BitSet reached, IntList queue) {
+        if (x == AtomTable.TOP || x == AtomTable.BOT || reached.get(x)) return;
+        reached.set(x);
+        queue.add(x);
+    }
+
+    /**
+     * Same as {@link #query(HornClause...)}, reporting its metrics to the listener. The counters are read from the
+     * trail entries added by the query
+     */
+    private LTURResult measuredQuery(HornClause... clauses) {
+        propagationNanos = 0;
+        timing = true;
         LTURResult result;
-        for (HornClause x : clauses) {
-            kb.add(x);
+        listener.onQueryStart();
+        long start = System.nanoTime(), propagated, resulted;
+        long popped = 0, decrements = 0, assignments = 0, conflicts = 0;
+        try {
+            LazyResult.Base base = queryBase();
+            int mark = trail.size();
+            int firstQueryClause = propagate(clauses);
+            propagated = System.nanoTime();
+            for (int i = mark; i<trail.size(); i += 2) {
+                switch (trail.get(i)) {
+                    case DECREMENT:
+                        decrements++;
+                        break;
+                    case PROPAGATE:
+                        popped++;
+                        break;
+                    case ASSIGN:
+                        assignments++;
+                        break;
+                    case UNSATISFY:
+                        conflicts++;
+                        // Clauses with no literals are the only ones reaching S with no positive atom
+                        int c = trail.get(i + 1);
+                        if (c < kb.clauseCount() ? kb.clauseBegin(c) == kb.clauseEnd(c)
+                                : gcs.get(c - kb.clauseCount()).getLiterals().length == 0)
+                            popped++;
+                        break;
+                }
+            }
+            result = result(base, firstQueryClause, mark, null);
+            resulted = System.nanoTime();
+        } finally {
+            timing = false;
+            restore();
         }
-        initialize(kb);
-        boolean satisfiability;
-        HashSet<GraphClause> satisfied = new HashSet<>(gcs);
-        HashSet<Atom> expectedAtoms = new HashSet<>();
+        long restored = System.nanoTime();
+        listener.onQuery(new QueryMetrics(clauses.length, result.isSatisfiable(), popped, decrements, assignments,
+                conflicts, propagated - start - propagationNanos, propagationNanos, resulted - propagated,
+                restored - resulted));
+        return result;
+    }
+
+    /**
+     * First phase of {@link #query(HornClause...)}: asserts the query clauses within a new checkpoint, that the caller
+     * has to pop
+     * @param clauses       Clauses representing the actual query
+     * @return              The identifier of the first query clause
+     */
+    private int propagate(HornClause... clauses) {
+        push();
+        int firstQueryClause = kb.clauseCount() + gcs.size();
         for (HornClause x : clauses) {
-            satisfied.remove(x.asGraphClause());
-        }
-        HashSet<GraphClause> unsatisfied = new HashSet<>();
-        HashSet<HashSet<Atom>> minimalAtomInconsistency = new HashSet<>();
-
-        // Running the actual ltur
-        satisfiability = ltur(true, satisfied, expectedAtoms, unsatisfied);
-        result = new LTURResult(satisfiability);
-        result.setSatisfiedClauses(satisfied);
-        result.setUnsatisfiedClauses(unsatisfied);
-
-        // Tries to infer the assignments from the set of satisfied and unsatisfied clauses
-        // This map has then to be reduced
-        setMaximumMap(satisfied, unsatisfied);
-
-        ArrayList<Atom> toRemove = new ArrayList<>();
-        for (Map.Entry<Atom, Integer> aI : val.entrySet()) {
-            if ((aI.getValue() == 0 && expectedAtoms.contains(aI.getKey().rawAtom())) ||
-                    (aI.getValue() == 1 && expectedAtoms.contains(aI.getKey().rawAtom().negate()))) {
-                HashSet<Atom> mis = new HashSet<>();
-                mis.add(aI.getKey());
-                mis.add(aI.getKey().negate());
-                minimalAtomInconsistency.add(mis);
-                toRemove.add(aI.getKey());
-            }
-        }
-        toRemove.forEach(val::remove);
-        for (HornClause hc : clauses) {
-            GraphClause gc = hc.asGraphClause();
-            ArrayList<Atom> vars = gc.getVariables();
-            if (vars.size() == 1) {
-                Atom a = vars.get(0);
-                boolean aNegated = a.isNegated();
-                Atom raw = a.rawAtom();
-                Integer mapValue = val.get(raw);
-                if (mapValue == null) {
-                    if (!(toRemove.contains(raw) || toRemove.contains(raw.negate())))
-                        val.put(raw, aNegated ? 0 : 1);
-                } else {
-                    if (!mapValue.equals(aNegated ? 0 : 1)) {
-                        HashSet<Atom> mis = new HashSet<>();
-                        mis.add(raw);
-                        mis.add(raw.negate());
-                        minimalAtomInconsistency.add(mis);
-                        val.remove(raw);
+            add(x);
+        }
+        return firstQueryClause;
+    }
+
+    /**
+     * Explains why a clause is not satisfied, by following back the clauses that propagated its negated atoms, up to
+     * the facts. The time is linear in the size of the explanation.
+     * @param conflict      Identifier of an unsatisfied clause, as provided by {@link LTURResult#unsatisfiedIds()}
+     * @return              The identifiers of the clauses that, together, are unsatisfiable: the conflict, the clauses
+     *                      propagating the atoms it depends on, and the facts. The set is empty if the clause is
+     *                      satisfied
+     */
+    public BitSet explain(int conflict) {
+        BitSet core = new BitSet();
+        if (!unsatisfied.get(conflict)) return core;
+        BitSet explained = new BitSet();
+        IntList toExplain = new IntList();
+        core.set(conflict);
+        toExplain.add(conflict);
+        while (!toExplain.isEmpty()) {
+            int c = toExplain.pop();
+            int[] l = c < kb.clauseCount() ? null : gcs.get(c - kb.clauseCount()).getLiterals();
+            int begin = l == null ? kb.clauseBegin(c) : 0;
+            int end = l == null ? kb.clauseEnd(c) : l.length;
+            for (int i = begin; i<end; i++) {
+                int literal = l == null ? kb.literal(i) : l[i];
+                int x = AtomTable.atomOf(literal);
+                if (AtomTable.isNegated(literal) && !explained.get(x)) {
+                    explained.set(x);
+                    int reason = reasons[x];
+                    if (!core.get(reason)) {
+                        core.set(reason);
+                        toExplain.add(reason);
                     }
                 }
             }
         }
+        return core;
+    }
 
-        result.setMinimalConsistentAssigment(val);
-        result.setMinimalInsonsistentAtomSets(minimalAtomInconsistency);
-        return result;
+    /**
+     * Explains why a clause is not satisfied by the KB, the asserted clauses and the query
+     * @param conflict      Identifier of an unsatisfied clause, as provided by the {@link LTURResult#unsatisfiedIds()}
+     *                      of {@link #query(HornClause...)} over the same query
+     * @param clauses       Clauses representing the actual query
+     * @return              The clauses that, together, are unsatisfiable, starting from the conflict
+     */
+    public List<GraphClause> explain(int conflict, HornClause... clauses) {
+        propagate(clauses);
+        try {
+            BitSet core = explain(conflict);
+            List<GraphClause> explanation = new ArrayList<>();
+            if (core.isEmpty()) return explanation;
+            explanation.add(graphClause(conflict));
+            for (int c = core.nextSetBit(0); c >= 0; c = core.nextSetBit(c + 1)) {
+                if (c != conflict) explanation.add(graphClause(c));
+            }
+            return explanation;
+        } finally {
+            restore();
+        }
     }
 
-    private void setMaximumMap(HashSet<GraphClause> satisfied, HashSet<GraphClause> unsatisfied) {
-        int valSize;
-        do {
-            valSize = val.size();
-            setSatisMap(satisfied, val);
-            setUnsatisMap(unsatisfied, val);
-        } while (valSize != val.size());
+    /**
+     * Checks whether the goal is true in the least model of the KB, of the asserted clauses and of the facts. The
+     * constraints (clauses with no positive atom) are not considered: see {@link #contradicts(HornClause...)}. A
+     * negated goal is entailed if asserting its atom contradicts the KB and the facts.
+     *
+     * The atoms that were already propagated are entailed. Otherwise, the clauses that can derive the goal are
+     * collected backward from the clauses defining it, stopping at the propagated atoms, while the atoms they derive
+     * are propagated forward through the collected clauses only, stopping as soon as the goal is derived. The engine
+     * state is not changed
+     * @param goal      Atom to be checked
+     * @param facts     Clauses only holding for this check
+     * @return          Whether the goal is entailed
+     */
+    public boolean entails(Atom goal, HornClause... facts) {
+        if (goal.isNegated()) {
+            HornClause[] refutation = Arrays.copyOf(facts, facts.length + 1);
+            refutation[facts.length] = HornClause.fact(goal.name);
+            return contradicts(refutation);
+        }
+        int g = atoms.id(goal.name);
+        if (g != AtomTable.NONE && propagated.get(g)) return true;
+        GoalSearch search = new GoalSearch(facts);
+        g = search.scratch.id(goal.name);
+        return g != AtomTable.NONE && search.derives(g);
+    }
+
+    /**
+     * Checks whether the KB, the asserted clauses and the facts are unsatisfiable. Only the consequences of the facts
+     * are propagated, and then undone
+     * @param facts     Clauses only holding for this check
+     * @return          Whether some clause is not satisfied
+     */
+    public boolean contradicts(HornClause... facts) {
+        if (!unsatisfied.isEmpty()) return true;
+        propagate(facts);
+        try {
+            return !unsatisfied.isEmpty();
+        } finally {
+            restore();
+        }
+    }
+
+    private static void define(HashMap<Integer, IntList> index, int atom, int clause) {
+        if (atom == AtomTable.NONE) return;
+        index.computeIfAbsent(atom, k -> new IntList()).add(clause);
+    }
+
+    /**
+     * Evaluates independent queries concurrently, using as many threads as the available processors
+     * @param queries       Clauses of each query
+     * @return              The result of each query, as returned by {@link #query(HornClause...)}
+     */
+    public List<LTURResult> queryAll(List<HornClause[]> queries) {
+        return queryAll(queries, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Evaluates independent queries concurrently. Each thread evaluates its queries on its own copy of the engine
+     * state, so the engine must not be modified until this method returns.
+     * @param queries       Clauses of each query
+     * @param threads       Number of the worker threads
+     * @return              The result of each query, as returned by {@link #query(HornClause...)}
+     */
+    public List<LTURResult> queryAll(List<HornClause[]> queries, int threads) {
+        LTURResult[] results = new LTURResult[queries.size()];
+        AtomicInteger next = new AtomicInteger();
+        int workers = Math.max(1, Math.min(threads, queries.size()));
+        ExecutorService pool = Executors.newFixedThreadPool(workers);
+        try {
+            ArrayList<Future<?>> futures = new ArrayList<>(workers);
+            for (int t = 0; t<workers; t++) {
+                futures.add(pool.submit(() -> {
+                    LTUR worker = new LTUR(this);
+                    for (int i = next.getAndIncrement(); i<results.length; i = next.getAndIncrement()) {
+                        results[i] = worker.query(queries.get(i));
+                    }
+                }));
+            }
+            for (Future<?> f : futures) {
+                f.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+            throw new RuntimeException(e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+        return Arrays.asList(results);
+    }
+
+    /**
+     * Returns the propagation state the queries start from, copying it if the engine state changed since the last copy.
+     * It must be invoked before propagating the query
+     * @return
+     */
+    private LazyResult.Base queryBase() {
+        if (queryBase == null || queryBaseVersion != version) {
+            queryBase = new LazyResult.Base(kb, gcs, retracted, unsatisfied, expectedAtoms, val);
+            queryBaseVersion = version;
+        }
+        return queryBase;
+    }
+
+    /**
+     * Second phase of {@link #query(HornClause...)}: collects the changes that the query made to the propagation
+     * state, from which the result computes its clauses and its assignment when first accessed. This takes time
+     * linear in the changes, rather than in the size of the KB
+     * @param base              Propagation state before the query, as returned by {@link #queryBase()}
+     * @param firstQueryClause  The identifier of the first query clause
+     * @param mark              Trail size before the query
+     * @param slice             Clauses the result is restricted to, or null for all the clauses
+     * @return
+     */
+    private LTURResult result(LazyResult.Base base, int firstQueryClause, int mark, BitSet slice) {
+        IntList assigned = new IntList(), conflicts = new IntList(), expected = new IntList();
+        for (int i = mark; i<trail.size(); i += 2) {
+            int value = trail.get(i + 1);
+            switch (trail.get(i)) {
+                case ASSIGN:
+                    assigned.add(value);
+                    assigned.add(val.get(value));
+                    break;
+                case UNSATISFY:
+                    conflicts.add(value);
+                    break;
+                case EXPECT:
+                    expected.add(value);
+                    break;
+            }
+        }
+        boolean satisfiable = unsatisfied.isEmpty();
+        if (slice != null) {
+            for (int c = unsatisfied.nextSetBit(0); c >= 0 && satisfiable; c = unsatisfied.nextSetBit(c + 1)) {
+                satisfiable = !slice.get(c);
+            }
+        }
+        GraphClause[] query = gcs.subList(firstQueryClause - kb.clauseCount(), gcs.size()).toArray(new GraphClause[0]);
+        int interned = atomCheckpoints.isEmpty() ? atoms.size() : atomCheckpoints.get(atomCheckpoints.size() - 1);
+        return new LTURResult(satisfiable, new LazyResult(base, firstQueryClause, query, assigned.toArray(),
+                conflicts.toArray(), expected.toArray(), atoms.snapshot(interned), slice));
+    }
+
+    /**
+     * Propagates the facts of the KB that were not retracted
+     */
+    private void propagateKB() {
+        for (int c : kb.initialClauses()) {
+            if (!retracted.get(c)) schedule(c);
+        }
+        ltur();
     }
 
-    private boolean ltur(boolean satisfiability, HashSet<GraphClause> satisfied, HashSet<Atom> expectedAtoms, HashSet<GraphClause> unsatisfied) {
+    /**
+     * Activates the asserted clauses from the k-th one, after removing their previous edges
+     * @param k             Position of the first asserted clause to be activated
+     */
+    private void replay(int k) {
+        delta.removeClauses(kb.clauseCount() + k);
+        for (int i = k; i<gcs.size(); i++) {
+            activate(kb.clauseCount() + i);
+        }
+    }
+
+    /**
+     * Brings the propagation state back to the one of the KB alone, propagating its clauses that were not retracted
+     * from the compiled counters (or copying the base model, when no clause of the KB is retracted). The asserted
+     * clauses have to be replayed afterwards. The trail is emptied, as it only records the changes following the KB
+     * propagation
+     */
+    private void resetToKB() {
+        delta.clear();
+        int c = retracted.nextSetBit(0);
+        if (base != null && (c < 0 || c >= kb.clauseCount())) {
+            base.copyTo(this);
+        } else {
+            for (int i = 0; i<kb.clauseCount(); i++) {
+                vMap[i] = retracted.get(i) ? INACTIVE : kb.counter(i);
+            }
+            propagated.clear();
+            unsatisfied.clear();
+            expectedAtoms.clear();
+            val.clear();
+            propagateKB();
+        }
+        trail = new IntList();
+    }
+
+    /**
+     * Adds the edges of the asserted clause, decrementing its counter for the atoms that were already propagated,
+     * and then propagates its consequences
+     * @param id    Clause identifier
+     */
+    private void activate(int id) {
+        int k = id - kb.clauseCount();
+        if (k < marks.size()) marks.set(k, trail.size());
+        else marks.add(trail.size());
+        GraphClause gc = gcs.get(k);
+        if (vMap.length <= id) {
+            vMap = Arrays.copyOf(vMap, Math.max(vMap.length * 2, id + 1));
+        }
+        vMap[id] = retracted.get(id) ? INACTIVE : gc.v();
+        int[] l = gc.getLiterals();
+        LTURGraph.putClause((x, y, h) -> {
+            delta.putEdgeValue(x, y, h);
+            if (propagated.get(x)) decrement(x, y, h);
+        }, id, l, 0, l.length);
+        if (vMap[id] == 0 && gc.v() == 0) schedule(id);
+        ltur();
+    }
+
+    /**
+     * Undoes the changes of the propagation state, until the trail has the given size
+     * @param mark  Trail size to be restored
+     */
+    private void rewind(int mark) {
+        while (trail.size() > mark) {
+            int value = trail.pop();
+            switch (trail.pop()) {
+                case DECREMENT:
+                    vMap[value]++;
+                    break;
+                case PROPAGATE:
+                    propagated.clear(value);
+                    break;
+                case ASSIGN:
+                    val.remove(value);
+                    break;
+                case UNSATISFY:
+                    unsatisfied.clear(value);
+                    break;
+                case EXPECT:
+                    expectedAtoms.remove(value);
+                    break;
+            }
+        }
+    }
+
+    private void record(int kind, int value) {
+        trail.add(kind);
+        trail.add(value);
+    }
+
+    /**
+     * Adds the clause to S, unless its positive atom was already propagated
+     * @param clause    Clause identifier
+     */
+    private void schedule(int clause) {
+        int x = head(clause);
+        if (x == AtomTable.NONE || !propagated.get(x)) {
+            if (x != AtomTable.NONE) {
+                propagated.set(x);
+                record(PROPAGATE, x);
+                if (x >= reasons.length) {
+                    reasons = Arrays.copyOf(reasons, Math.max(reasons.length * 2, x + 1));
+                }
+                reasons[x] = clause;
+            }
+            S.add(clause);
+        }
+    }
+
+    /**
+     * Returns the clause in its disjuncted representation
+     * @param clause    Clause identifier
+     * @return
+     */
+    private GraphClause graphClause(int clause) {
+        return clause < kb.clauseCount() ? kb.graphClause(clause) : gcs.get(clause - kb.clauseCount());
+    }
+
+    private int head(int clause) {
+        return clause < kb.clauseCount() ? kb.head(clause) : gcs.get(clause - kb.clauseCount()).positiveAtom();
+    }
+
+    /**
+     * Number of the edges leaving the positive atom of the clause, that is the counters its propagation decrements
+     * @param clause    Clause identifier
+     * @return          The number of the edges, or 0 if the clause has no positive atom
+     */
+    private int fanOut(int clause) {
+        int x = head(clause);
+        if (x == AtomTable.NONE) return 0;
+        IntList adj = delta.isEmpty() ? null : delta.adjacencyList(x);
+        return graph.end(x) - graph.begin(x) + (adj == null ? 0 : adj.size() / 2);
+    }
+
+    private void ltur() {
+        long start = timing ? System.nanoTime() : 0;
         while (!S.isEmpty()) {
-            GraphClause j = S.iterator().next();
-            S.remove(j);
-            Atom x_i = j.positiveVariable();
-            if (x_i == null) {
-                expectedAtoms.add(x_i.negate());
-                satisfied.remove(j);
-                unsatisfied.add(j);
-                satisfiability = false;
+            if (pool != null && S.size() >= PARALLEL_FRONTIER) {
+                propagateLevels();
+                continue;
+            }
+            int j = S.poll();
+            int x_i = head(j);
+            if (x_i == AtomTable.NONE) {
+                unsatisfy(j);
             } else {
                 // for every                    x_i -[h]-> y
-                HashMultimap<IAtom, GraphClause> adj = graph.dg.adjacencyList(x_i);
-                for (Map.Entry<IAtom, Collection<GraphClause>> y__hc : adj.asMap().entrySet()) {
-                    IAtom y = y__hc.getKey();
-                    for (GraphClause h : y__hc.getValue()) {
-                        vMap.put(h, vMap.get(h)-1);
-                        if (vMap.get(h) == 0) {
-                            Integer valY = val.get(y);
-                            if (y.isBot()) {
-                                expectedAtoms.add(x_i.negate());
-                                satisfied.remove(h);
-                                unsatisfied.add(h);
-                                satisfiability = false;
-                            } else if ((!y.isTop()) && (valY == null || valY.equals(0))) {
-                                S.add(h);
-                                val.put(((Atom)y), 1);
-                            }
+                for (int e = graph.begin(x_i), end = graph.end(x_i); e < end; e++) {
+                    decrement(x_i, graph.target(e), graph.clause(e));
+                }
+                if (!delta.isEmpty()) {
+                    IntList adj = delta.adjacencyList(x_i);
+                    for (int e = 0, end = adj == null ? 0 : adj.size(); e < end; e += 2) {
+                        decrement(x_i, adj.get(e), adj.get(e + 1));
+                    }
+                }
+            }
+        }
+        if (timing) propagationNanos += System.nanoTime() - start;
+    }
+
+    /**
+     * Propagates the truth of x_i through the edge x_i -[h]-> y
+     */
+    private void decrement(int x_i, int y, int h) {
+        record(DECREMENT, h);
+        if (--vMap[h] == 0) fire(x_i, y, h);
+    }
+
+    /**
+     * Infers the consequence of the clause h, whose negated atoms are all true, when reached through x_i -[h]-> y
+     */
+    private void fire(int x_i, int y, int h) {
+        if (y == AtomTable.BOT) {
+            if (expectedAtoms.add(AtomTable.literal(x_i, true)))
+                record(EXPECT, AtomTable.literal(x_i, true));
+            unsatisfy(h);
+        } else if ((y != AtomTable.TOP) && !val.isAssigned(y)) {
+            // A fact propagates its atom without assigning it, while a derived atom is always assigned (as in the
+            // original algorithm): testing propagated instead would make the assignment depend on whether the fact
+            // or the rule comes first, and the post-processing infers more from the assigned atoms
+            schedule(h);
+            val.put(y, 1);
+            record(ASSIGN, y);
+        }
+    }
+
+    /**
+     * Propagates the clauses in S one level at a time, until S is empty. The clauses of each level are split among
+     * the pool threads, which decrement the counters atomically and claim the atoms becoming true via CAS, so that each
+     * counter reaches zero, and each atom is claimed, by one thread only. The claimed atoms and the unsatisfied clauses
+     * are then merged sequentially, providing the following level.
+     *
+     * The decrements are accumulated in {@link #decrements} while the levels are running, and are subtracted from
+     * vMap at the end. The trail records them as the sequential propagation does.
+     */
+    private void propagateLevels() {
+        int mark = trail.size();
+        if (decrements == null || decrements.length() < vMap.length) {
+            decrements = new AtomicIntegerArray(vMap.length);
+        }
+        int words = (atoms.size() + 63) >>> 6;
+        if (claimed == null || claimed.length() < words) {
+            claimed = new AtomicLongArray(words);
+        }
+        while (!S.isEmpty()) {
+            int[] frontier = S.drain();
+            parallelLevels++;
+
+            int chunks = chunks(frontier.length);
+            IntList[] decremented = new IntList[chunks];
+            IntList[] fired = new IntList[chunks];
+            forEachChunk(chunks, k -> {
+                IntList dec = new IntList();
+                IntList fire = new IntList();
+                for (int i = k * frontier.length / chunks, to = (k + 1) * frontier.length / chunks; i<to; i++) {
+                    int j = frontier[i];
+                    int x_i = head(j);
+                    if (x_i == AtomTable.NONE) {
+                        fire.add(AtomTable.NONE);
+                        fire.add(AtomTable.NONE);
+                        fire.add(j);
+                        continue;
+                    }
+                    for (int e = graph.begin(x_i), end = graph.end(x_i); e < end; e++) {
+                        decrementConcurrently(x_i, graph.target(e), graph.clause(e), dec, fire);
+                    }
+                    if (!delta.isEmpty()) {
+                        IntList adj = delta.adjacencyList(x_i);
+                        for (int e = 0, end = adj == null ? 0 : adj.size(); e < end; e += 2) {
+                            decrementConcurrently(x_i, adj.get(e), adj.get(e + 1), dec, fire);
                         }
+                    }
+                }
+                decremented[k] = dec;
+                fired[k] = fire;
+            });
 
+            // Records the decrements on the trail, each chunk writing its own range
+            int[] offsets = new int[chunks + 1];
+            for (int k = 0; k<chunks; k++) {
+                offsets[k + 1] = offsets[k] + 2 * decremented[k].size();
+            }
+            int base = trail.size();
+            trail.resize(base + offsets[chunks]);
+            forEachChunk(chunks, k -> {
+                IntList dec = decremented[k];
+                for (int i = 0, t = base + offsets[k]; i<dec.size(); i++, t += 2) {
+                    trail.set(t, DECREMENT);
+                    trail.set(t + 1, dec.get(i));
+                }
+            });
+
+            for (IntList fire : fired) {
+                for (int i = 0; i<fire.size(); i += 3) {
+                    int x_i = fire.get(i), y = fire.get(i + 1), h = fire.get(i + 2);
+                    if (x_i == AtomTable.NONE) {
+                        unsatisfy(h);
+                    } else {
+                        if (y != AtomTable.BOT) claimed.set(y >>> 6, 0);
+                        fire(x_i, y, h);
                     }
                 }
             }
         }
-        return satisfiability;
+
+        // Subtracts the decrements from vMap: only the first entry of each clause finds them
+        int entries = (trail.size() - mark) / 2;
+        int chunks = chunks(entries);
+        forEachChunk(chunks, k -> {
+            for (int i = k * entries / chunks, to = (k + 1) * entries / chunks; i<to; i++) {
+                int t = mark + 2 * i;
+                if (trail.get(t) != DECREMENT) continue;
+                int h = trail.get(t + 1);
+                int d = decrements.getAndSet(h, 0);
+                if (d != 0) vMap[h] -= d;
+            }
+        });
     }
 
-    private static void setValMap(HashSet<GraphClause> unsatisfied, ValMap val, BiFunction<ValMap, GraphClause, GraphClause> f) {
-        HashSet<GraphClause> cp = new HashSet<>(unsatisfied);
-        boolean isEqual = true;
+    /**
+     * Concurrent version of {@link #decrement(int, int, int)}, collecting the decremented clauses and the triples
+     * (x_i, y, h) to be fired
+     */
+    private void decrementConcurrently(int x_i, int y, int h, IntList decremented, IntList fired) {
+        decremented.add(h);
+        if (decrements.incrementAndGet(h) != vMap[h]) return;
+        if (y == AtomTable.BOT || ((y != AtomTable.TOP) && !val.isAssigned(y) && claim(y))) {
+            fired.add(x_i);
+            fired.add(y);
+            fired.add(h);
+        }
+    }
+
+    /**
+     * Claims the atom for the current level
+     * @return  Whether the atom was not claimed before
+     */
+    private boolean claim(int y) {
+        int w = y >>> 6;
+        long bit = 1L << y;
+        long old;
         do {
-            ArrayList<GraphClause> toRemove = new ArrayList<>();
-            HashMap<GraphClause, GraphClause> oldToNew = new HashMap<>();
-            for (GraphClause unsatis : unsatisfied) {
-                GraphClause update = f.apply(val, unsatis);
-                if (update == null)
-                    toRemove.add(unsatis);
-                else if (!unsatis.equals(update))
-                    oldToNew.put(unsatis, update);
-            }
-            HashSet<GraphClause> step = new HashSet<>(unsatisfied);
-            step.retainAll(toRemove);
-            step.removeAll(oldToNew.keySet());
-            step.addAll(oldToNew.values());
-            if (step.equals(cp)) {
-                isEqual = true;
+            old = claimed.get(w);
+            if ((old & bit) != 0) return false;
+        } while (!claimed.compareAndSet(w, old, old | bit));
+        return true;
+    }
+
+    private int chunks(int n) {
+        return Math.max(1, Math.min(pool.getParallelism() * 4, n / PARALLEL_CHUNK));
+    }
+
+    /**
+     * Runs the task for each chunk from 0 to chunks on the pool, and waits for all of them
+     */
+    private void forEachChunk(int chunks, IntConsumer task) {
+        if (chunks == 1) {
+            task.accept(0);
+            return;
+        }
+        ArrayList<Callable<Void>> tasks = new ArrayList<>(chunks);
+        for (int k = 0; k<chunks; k++) {
+            int chunk = k;
+            tasks.add(() -> {
+                task.accept(chunk);
+                return null;
+            });
+        }
+        try {
+            for (Future<Void> f : pool.invokeAll(tasks)) {
+                f.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    private void unsatisfy(int clause) {
+        if (!unsatisfied.get(clause)) {
+            unsatisfied.set(clause);
+            record(UNSATISFY, clause);
+        }
+    }
+
+
+    /**
+     * Backward and forward search of {@link #entails(Atom, HornClause...)}. The facts follow the asserted clauses, and
+     * they are only indexed here: the engine state is not changed. The atoms that only appear in the facts are
+     * interned into a table extending the engine one, which is dropped with the search.
+     *
+     * The two passes are interleaved: each clause collected backward gets its counter of the negated atoms that were
+     * neither propagated nor derived yet, and the derived atoms are propagated forward as soon as they are found, so
+     * that the search stops as soon as the goal is derived. The counters and the marks of the collected clauses and
+     * of the reached and derived atoms are arrays of the engine, reused across the searches: each search marks them
+     * with its own epoch, so that they never need to be cleared
+     */
+    private class GoalSearch {
+        private final int n = kb.clauseCount() + gcs.size();
+        private final int[][] facts;
+        private final AtomTable scratch = new AtomTable(atoms);
+
+        /**
+         * Asserted clauses by positive atom, facts by positive atom, and facts by the atoms labelling their edges
+         * (clause and target)
+         */
+        private final HashMap<Integer, IntList> definitions = assertedDefinitions();
+        private final HashMap<Integer, IntList> factDefinitions = new HashMap<>();
+        private final HashMap<Integer, IntList> uses = new HashMap<>();
+        private final int epoch;
+
+        /**
+         * Atoms to be visited backward, and atoms derived so far, to be visited forward from position next
+         */
+        private final IntList stack = new IntList();
+        private final IntList derived = new IntList();
+        private int next;
+
+        /**
+         * Literals of the KB clause being collected
+         */
+        private int[] buffer = new int[16];
+
+        GoalSearch(HornClause[] facts) {
+            this.facts = new int[facts.length][];
+            for (int i = 0; i<facts.length; i++) {
+                GraphClause gc = facts[i].asGraphClause().intern(scratch);
+                this.facts[i] = gc.getLiterals();
+                define(factDefinitions, gc.positiveAtom(), n + i);
+            }
+            epoch = nextGoalEpoch(n + facts.length, scratch.size());
+        }
+
+        boolean derives(int goal) {
+            reach(goal);
+            while (next < derived.size() || !stack.isEmpty()) {
+                if (next < derived.size()) {
+                    // Forward: propagates the derived atom through the collected clauses only
+                    int y = derived.get(next++);
+                    if (y == goal) return true;
+                    if (goalDerived[y] == epoch) continue;
+                    goalDerived[y] = epoch;
+                    for (int e = graph.begin(y), end = graph.end(y); e < end; e++) {
+                        decrement(graph.clause(e), graph.target(e));
+                    }
+                    IntList adj = delta.isEmpty() ? null : delta.adjacencyList(y);
+                    for (int e = 0, end = adj == null ? 0 : adj.size(); e < end; e += 2) {
+                        decrement(adj.get(e + 1), adj.get(e));
+                    }
+                    IntList used = uses.get(y);
+                    for (int e = 0, end = used == null ? 0 : used.size(); e < end; e += 2) {
+                        decrement(used.get(e), used.get(e + 1));
+                    }
+                } else {
+                    // Backward: collects the clauses defining an atom that was not propagated
+                    int x = stack.pop();
+                    for (int i = kb.definitionBegin(x), end = kb.definitionEnd(x); i<end; i++) {
+                        collect(kb.definition(i), x);
+                    }
+                    for (HashMap<Integer, IntList> index : Arrays.asList(definitions, factDefinitions)) {
+                        IntList defs = index.get(x);
+                        for (int i = 0, end = defs == null ? 0 : defs.size(); i<end; i++) {
+                            collect(defs.get(i), x);
+                        }
+                    }
+                }
+            }
+            return false;
+        }
+
+        private void reach(int x) {
+            if (goalReached[x] == epoch) return;
+            goalReached[x] = epoch;
+            stack.add(x);
+        }
+
+        /**
+         * Collects the clause c defining x, along with its counter of the negated atoms that were neither propagated
+         * nor derived. Such atoms are reached in turn, while x is derived if the counter is already zero
+         */
+        private void collect(int c, int x) {
+            if (c < n && retracted.get(c) || goalClauses[c] == epoch) return;
+            goalClauses[c] = epoch;
+            int[] l;
+            int length;
+            if (c < kb.clauseCount()) {
+                length = kb.clauseEnd(c) - kb.clauseBegin(c);
+                if (buffer.length < length) buffer = new int[Math.max(buffer.length * 2, length)];
+                for (int i = 0; i<length; i++) {
+                    buffer[i] = kb.literal(kb.clauseBegin(c) + i);
+                }
+                l = buffer;
             } else {
-                cp = step;
-                isEqual = false;
+                l = c < n ? gcs.get(c - kb.clauseCount()).getLiterals() : facts[c - n];
+                length = l.length;
+            }
+            int counter = c < n ? vMap[c] : 0;
+            for (int i = 0; i<length; i++) {
+                if (!AtomTable.isNegated(l[i])) continue;
+                if (c >= n) counter++;
+                int y = AtomTable.atomOf(l[i]);
+                if (!propagated.get(y)) reach(y);
             }
-        } while (!isEqual);
+            // The edges leaving the atoms that were already derived do not reach the clause anymore. The edges of the
+            // facts are the ones activate would add, decrementing the counter if propagated
+            int[] remaining = {counter};
+            LTURGraph.putClause((source, target, h) -> {
+                if (propagated.get(source)) {
+                    if (h >= n) remaining[0]--;
+                } else if (goalDerived[source] == epoch) {
+                    remaining[0]--;
+                } else if (h >= n) {
+                    define(uses, source, h);
+                    uses.get(source).add(target);
+                }
+            }, c, l, 0, length);
+            goalCounters[c] = remaining[0];
+            if (remaining[0] == 0) derived.add(x);
+        }
+
+        /**
+         * Propagates a derived atom through the edge labelled by h towards y
+         */
+        private void decrement(int h, int y) {
+            if (goalClauses[h] != epoch) return;
+            if (--goalCounters[h] == 0) derived.add(y);
+        }
     }
 
-    private static void setUnsatisMap(HashSet<GraphClause> unsatisfied, ValMap val) {
-        setValMap(unsatisfied, val, ValMap::updateWithUnsatisfaction);
+    /**
+     * Returns the asserted clauses that were not retracted, indexed by positive atom, building the index again if the
+     * engine state changed since it was last built
+     * @return
+     */
+    private HashMap<Integer, IntList> assertedDefinitions() {
+        if (assertedDefinitions == null || assertedDefinitionsVersion != version) {
+            assertedDefinitions = new HashMap<>();
+            for (int c = kb.clauseCount(), n = kb.clauseCount() + gcs.size(); c<n; c++) {
+                if (!retracted.get(c)) define(assertedDefinitions, gcs.get(c - kb.clauseCount()).positiveAtom(), c);
+            }
+            assertedDefinitionsVersion = version;
+        }
+        return assertedDefinitions;
     }
 
-    private static void setSatisMap(HashSet<GraphClause> unsatisfied, ValMap val) {
-        setValMap(unsatisfied, val, ValMap::updateWithSatisfaction);
+    /**
+     * Starts a new {@link GoalSearch}, growing its arrays to the given number of clauses and atoms
+     * @param clauses   Number of the clauses, including the facts of the search
+     * @param atoms     Number of the atoms, including the ones only appearing in the facts
+     * @return          The epoch marking the clauses and the atoms visited by the search
+     */
+    private int nextGoalEpoch(int clauses, int atoms) {
+        if (goalCounters.length < clauses) {
+            int length = Math.max(goalCounters.length * 2, clauses);
+            goalCounters = Arrays.copyOf(goalCounters, length);
+            goalClauses = Arrays.copyOf(goalClauses, length);
+        }
+        if (goalReached.length < atoms) {
+            int length = Math.max(goalReached.length * 2, atoms);
+            goalReached = Arrays.copyOf(goalReached, length);
+            goalDerived = Arrays.copyOf(goalDerived, length);
+        }
+        if (goalEpoch == Integer.MAX_VALUE) {
+            goalEpoch = 0;
+            Arrays.fill(goalClauses, 0);
+            Arrays.fill(goalReached, 0);
+            Arrays.fill(goalDerived, 0);
+        }
+        return ++goalEpoch;
     }
 
+    /**
+     * Propagation state of a KB with no asserted clauses: clause counters, propagated atoms and their reasons,
+     * unsatisfied clauses and assignment. The KB is propagated once, and then each engine created by
+     * {@link #newEngine()} starts from a copy of such state, which it also goes back to when the KB clauses it
+     * retracted are restored. The base model is never modified, so that it can be shared among threads
+     */
+    public static final class BaseModel {
+        private final CompiledKB kb;
+        private final int[] vMap;
+        private final BitSet propagated;
+        private final int[] reasons;
+        private final BitSet unsatisfied;
+        private final HashSet<Integer> expectedAtoms;
+        private final ValMap val;
+
+        /**
+         * Takes the propagation state of an engine that is not going to be used anymore
+         */
+        private BaseModel(LTUR engine) {
+            kb = engine.kb;
+            vMap = engine.vMap;
+            propagated = engine.propagated;
+            reasons = engine.reasons;
+            unsatisfied = engine.unsatisfied;
+            expectedAtoms = engine.expectedAtoms;
+            val = engine.val;
+        }
+
+        /**
+         * Propagates the KB
+         * @param kb    Compiled KB
+         * @return      The propagation state it reaches
+         */
+        public static BaseModel of(CompiledKB kb) {
+            return new BaseModel(new LTUR(kb));
+        }
+
+        /**
+         * Creates an engine over the KB, without propagating it again
+         * @return
+         */
+        public LTUR newEngine() {
+            return new LTUR(this);
+        }
 
+        public CompiledKB kb() {
+            return kb;
+        }
+
+        /**
+         * Bytes taken in the java heap, excluding the compiled KB
+         * @return
+         */
+        public long heapBytes() {
+            return Footprint.object(0, 7) + Footprint.array(vMap.length, 4) + Footprint.bitSet(propagated.size())
+                    + Footprint.array(reasons.length, 4) + Footprint.bitSet(unsatisfied.size())
+                    + Footprint.hashMap(expectedAtoms.size(), Footprint.object(4, 0)) + val.heapBytes();
+        }
+
+        void copyTo(LTUR engine) {
+            engine.vMap = vMap.clone();
+            engine.trail = new IntList();
+            engine.propagated = (BitSet) propagated.clone();
+            engine.reasons = reasons.clone();
+            engine.unsatisfied = (BitSet) unsatisfied.clone();
+            engine.expectedAtoms = new HashSet<>(expectedAtoms);
+            engine.val = new ValMap(val);
+        }
+    }
 }
@@ -0,0 +1,365 @@
+/*
+ * LazyResult.java
+ * This file is part of ltur
+ *
+ * Copyright (C) 2018 giacomo
+ *
+ * ltur is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * ltur is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ltur. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package it.giacomobergami.ltur;
+
+import it.giacomobergami.ltur.structure.CompiledKB;
+import it.giacomobergami.ltur.structure.Footprint;
+import it.giacomobergami.ltur.structure.IntArray;
+import it.giacomobergami.ltur.structure.IntList;
+import it.giacomobergami.ltur.structure.LTURResult;
+import it.giacomobergami.ltur.structure.ValMap;
+import it.giacomobergami.ltur.structure.atoms.AtomTable;
+import it.giacomobergami.ltur.structure.clauses.GraphClause;
+import it.giacomobergami.ltur.structure.graph.LTURGraph;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Computes the clauses and the assignment of a query result the first time they are accessed, from the propagation
+ * state the query started from ({@link Base}) and the changes the query made to it, as recorded by the trail. The
+ * query itself only pays for its propagation: the scan of all the clauses collecting the satisfied ones, and the
+ * extension of the assignment (setMaximumMap), are only performed by the results that are inspected.
+ */
+final class LazyResult implements Consumer<LTURResult> {
+
+    /**
+     * Propagation state of an engine with no pending query. As it only changes with the engine version, it is copied
+     * once for all the queries evaluated between two changes, and it is never modified afterwards
+     */
+    static final class Base {
+        private final CompiledKB kb;
+        private final GraphClause[] asserted;
+
+        /**
+         * Same as {@link Arrays#hashCode(int[])}, for the literals of each asserted clause
+         */
+        private final int[] assertedHashes;
+        private final BitSet retracted;
+        private final BitSet unsatisfied;
+        private final HashSet<Integer> expectedAtoms;
+        private final ValMap val;
+
+        /**
+         * Clauses labelling the edges leaving each atom, among the asserted ones, or null if not yet collected
+         */
+        private HashMap<Integer, IntList> assertedEdges;
+
+        Base(CompiledKB kb, List<GraphClause> asserted, BitSet retracted, BitSet unsatisfied,
+             HashSet<Integer> expectedAtoms, ValMap val) {
+            this.kb = kb;
+            this.asserted = asserted.toArray(new GraphClause[0]);
+            assertedHashes = new int[this.asserted.length];
+            for (int k = 0; k<assertedHashes.length; k++) {
+                assertedHashes[k] = Arrays.hashCode(this.asserted[k].getLiterals());
+            }
+            this.retracted = (BitSet) retracted.clone();
+            this.unsatisfied = (BitSet) unsatisfied.clone();
+            this.expectedAtoms = new HashSet<>(expectedAtoms);
+            this.val = new ValMap(val);
+        }
+
+        /**
+         * Bytes taken in the java heap, excluding the asserted clauses and the compiled KB
+         * @return
+         */
+        long heapBytes() {
+            return Footprint.object(0, 8) + Footprint.referenceArray(asserted.length)
+                    + Footprint.array(assertedHashes.length, 4) + Footprint.bitSet(retracted.size())
+                    + Footprint.bitSet(unsatisfied.size())
+                    + Footprint.hashMap(expectedAtoms.size(), Footprint.object(4, 0)) + val.heapBytes();
+        }
+
+        private synchronized HashMap<Integer, IntList> assertedEdges() {
+            if (assertedEdges == null) assertedEdges = edges(asserted, kb.clauseCount());
+            return assertedEdges;
+        }
+    }
+
+    private final Base base;
+    private final int firstQueryClause;
+    private final GraphClause[] query;
+
+    /**
+     * Pairs (atom, value) assigned by the query, in assignment order
+     */
+    private final int[] assigned;
+
+    /**
+     * Clauses that the query made unsatisfied, and literals it made expected
+     */
+    private final int[] conflicts;
+    private final int[] expected;
+    private final AtomTable atoms;
+
+    /**
+     * Clauses the result is restricted to, or null for all the clauses
+     */
+    private final BitSet slice;
+
+    /**
+     * @param base              Propagation state before the query
+     * @param firstQueryClause  Identifier of the first query clause
+     * @param query             Query clauses
+     * @param assigned          Pairs (atom, value) assigned by the query, in assignment order
+     * @param conflicts         Clauses that the query made unsatisfied
+     * @param expected          Literals that the query made expected
+     * @param atoms             Table providing the atom names, which must not change afterwards
+     * @param slice             Clauses the result is restricted to, or null for all the clauses
+     */
+    LazyResult(Base base, int firstQueryClause, GraphClause[] query, int[] assigned, int[] conflicts,
+               int[] expected, AtomTable atoms, BitSet slice) {
+        this.base = base;
+        this.firstQueryClause = firstQueryClause;
+        this.query = query;
+        this.assigned = assigned;
+        this.conflicts = conflicts;
+        this.expected = expected;
+        this.atoms = atoms;
+        this.slice = slice;
+    }
+
+    @Override
+    public void accept(LTURResult result) {
+        int n = firstQueryClause + query.length;
+        BitSet unsatisfied = (BitSet) base.unsatisfied.clone();
+        for (int c : conflicts) {
+            unsatisfied.set(c);
+        }
+        ValMap val = new ValMap(base.val);
+        for (int i = 0; i<assigned.length; i += 2) {
+            val.put(assigned[i], assigned[i + 1]);
+        }
+        BitSet satisfied = new BitSet(n);
+        if (slice == null) {
+            satisfied.set(0, firstQueryClause);
+        } else {
+            satisfied.or(slice);
+            satisfied.clear(firstQueryClause, n);
+            unsatisfied.and(slice);
+            val = sliceAssignment(val);
+        }
+        // The query clauses are excluded by their identifiers, and the clauses equal to them via the literal index
+        satisfied.andNot(base.retracted);
+        satisfied.andNot(unsatisfied);
+        clearQueryClauses(satisfied);
+        result.setClauses(satisfied, unsatisfied, this::clause);
+
+        // Tries to infer the assignments from the set of satisfied and unsatisfied clauses
+        // This map has then to be reduced
+        setMaximumMap(val, satisfied, unsatisfied, edges(query, firstQueryClause));
+
+        HashSet<Integer> expectedAtoms = base.expectedAtoms;
+        if (expected.length > 0) {
+            expectedAtoms = new HashSet<>(expectedAtoms);
+            for (int l : expected) {
+                expectedAtoms.add(l);
+            }
+        }
+        BitSet minimalAtomInconsistency = new BitSet();
+        BitSet removed = new BitSet();
+        for (int i = 0; i<val.size(); i++) {
+            int atom = val.atom(i);
+            int raw = AtomTable.literal(atom, false);
+            if ((val.get(atom) == 0 && expectedAtoms.contains(raw)) ||
+                    (val.get(atom) == 1 && expectedAtoms.contains(AtomTable.negate(raw)))) {
+                minimalAtomInconsistency.set(atom);
+                removed.set(atom);
+            }
+        }
+        for (int x = removed.nextSetBit(0); x >= 0; x = removed.nextSetBit(x + 1)) {
+            val.remove(x);
+        }
+        for (GraphClause q : query) {
+            int[] vars = q.getLiterals();
+            if (vars.length == 1) {
+                int a = vars[0];
+                boolean aNegated = AtomTable.isNegated(a);
+                int raw = AtomTable.atomOf(a);
+                int mapValue = val.get(raw);
+                if (mapValue == ValMap.UNKNOWN) {
+                    if (!removed.get(raw))
+                        val.put(raw, aNegated ? 0 : 1);
+                } else {
+                    if (mapValue != (aNegated ? 0 : 1)) {
+                        minimalAtomInconsistency.set(raw);
+                        val.remove(raw);
+                    }
+                }
+            }
+        }
+        result.setMinimalConsistentAssigment(val, atoms);
+        result.setMinimalInsonsistentAtoms(minimalAtomInconsistency);
+    }
+
+    private GraphClause clause(int c) {
+        int kbCount = base.kb.clauseCount();
+        return c < kbCount ? base.kb.graphClause(c)
+                : c < firstQueryClause ? base.asserted[c - kbCount] : query[c - firstQueryClause];
+    }
+
+    /**
+     * Restricts the assignment to the atoms of the clauses of the slice
+     */
+    private ValMap sliceAssignment(ValMap val) {
+        CompiledKB kb = base.kb;
+        ValMap assignment = new ValMap();
+        for (int c = slice.nextSetBit(0); c >= 0; c = slice.nextSetBit(c + 1)) {
+            int[] l = c < kb.clauseCount() ? null : clause(c).getLiterals();
+            int begin = l == null ? kb.clauseBegin(c) : 0, end = l == null ? kb.clauseEnd(c) : l.length;
+            for (int i = begin; i<end; i++) {
+                int x = AtomTable.atomOf(l == null ? kb.literal(i) : l[i]);
+                if (val.isAssigned(x)) assignment.put(x, val.get(x));
+            }
+        }
+        return assignment;
+    }
+
+    /**
+     * Removes the clauses of the KB and the asserted ones having the same literals of a query clause, that is the
+     * clauses equal to one of them
+     */
+    private void clearQueryClauses(BitSet satisfied) {
+        if (query.length == 0) return;
+        HashSet<Integer> queryHashes = new HashSet<>();
+        for (GraphClause q : query) {
+            for (int c : base.kb.clausesWithLiterals(q.getLiterals())) {
+                satisfied.clear(c);
+            }
+            queryHashes.add(Arrays.hashCode(q.getLiterals()));
+        }
+        for (int k = 0; k<base.asserted.length; k++) {
+            if (queryHashes.contains(base.assertedHashes[k]) && isQueryClause(base.asserted[k].getLiterals()))
+                satisfied.clear(base.kb.clauseCount() + k);
+        }
+    }
+
+    private boolean isQueryClause(int[] literals) {
+        for (GraphClause q : query) {
+            if (Arrays.equals(q.getLiterals(), literals)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Extends the assignment with the values inferred from the satisfied and the unsatisfied clauses, until no more
+     * values can be inferred.
+     *
+     * This visits the clauses in the same order as repeatedly scanning all the satisfied clauses and then all the
+     * unsatisfied ones, but each pass only visits the clauses that changed since their previous visit. A clause only
+     * changes when one of its negated atoms becomes true, and such clauses are the ones labelling the outgoing edges of
+     * the atom in the implication graph. Therefore, each clause is visited once, plus once per atom becoming true.
+     * @param val           Assignment to be extended
+     * @param satisfied     Satisfied clauses
+     * @param unsatisfied   Unsatisfied clauses
+     * @param queryEdges    Clauses labelling the edges leaving each atom, among the query clauses
+     */
+    private void setMaximumMap(ValMap val, BitSet satisfied, BitSet unsatisfied,
+                               HashMap<Integer, IntList> queryEdges) {
+        BitSet dirtySatisfied = (BitSet) satisfied.clone();
+        BitSet dirtyUnsatisfied = (BitSet) unsatisfied.clone();
+        HashMap<Integer, IntList> assertedEdges = base.assertedEdges();
+        while (!dirtySatisfied.isEmpty() || !dirtyUnsatisfied.isEmpty()) {
+            for (int c = dirtySatisfied.nextSetBit(0); c >= 0; c = dirtySatisfied.nextSetBit(c + 1)) {
+                dirtySatisfied.clear(c);
+                int valSize = val.size();
+                update(val, c, true);
+                if (val.size() != valSize)
+                    touch(val, satisfied, unsatisfied, dirtySatisfied, dirtyUnsatisfied, assertedEdges, queryEdges);
+            }
+            for (int c = dirtyUnsatisfied.nextSetBit(0); c >= 0; c = dirtyUnsatisfied.nextSetBit(c + 1)) {
+                dirtyUnsatisfied.clear(c);
+                int valSize = val.size();
+                update(val, c, false);
+                if (val.size() != valSize)
+                    touch(val, satisfied, unsatisfied, dirtySatisfied, dirtyUnsatisfied, assertedEdges, queryEdges);
+            }
+        }
+    }
+
+    /**
+     * Marks the clauses where the last assigned atom occurs negated, if such atom is true
+     */
+    private void touch(ValMap val, BitSet satisfied, BitSet unsatisfied, BitSet dirtySatisfied,
+                       BitSet dirtyUnsatisfied, HashMap<Integer, IntList> assertedEdges,
+                       HashMap<Integer, IntList> queryEdges) {
+        int x = val.atom(val.size() - 1);
+        if (val.get(x) != 1) return;
+        LTURGraph graph = base.kb.graph();
+        for (int e = graph.begin(x), end = graph.end(x); e < end; e++) {
+            touch(graph.clause(e), satisfied, unsatisfied, dirtySatisfied, dirtyUnsatisfied);
+        }
+        for (IntList clauses : new IntList[]{assertedEdges.get(x), queryEdges.get(x)}) {
+            for (int i = 0, end = clauses == null ? 0 : clauses.size(); i<end; i++) {
+                touch(clauses.get(i), satisfied, unsatisfied, dirtySatisfied, dirtyUnsatisfied);
+            }
+        }
+    }
+
+    private static void touch(int c, BitSet satisfied, BitSet unsatisfied, BitSet dirtySatisfied,
+                              BitSet dirtyUnsatisfied) {
+        if (satisfied.get(c)) {
+            dirtySatisfied.set(c);
+        } else if (unsatisfied.get(c)) {
+            dirtyUnsatisfied.set(c);
+        }
+    }
+
+    /**
+     * Infers the assignment of the clause when only one of its literals is left
+     * @param satisfied     Whether the clause is satisfied, or unsatisfied
+     */
+    private void update(ValMap val, int c, boolean satisfied) {
+        IntArray literals;
+        int begin, end;
+        if (c < base.kb.clauseCount()) {
+            literals = base.kb.literals();
+            begin = base.kb.clauseBegin(c);
+            end = base.kb.clauseEnd(c);
+        } else {
+            literals = clause(c).literalArray();
+            begin = 0;
+            end = literals.length();
+        }
+        if (satisfied) val.updateWithSatisfaction(literals, begin, end);
+        else val.updateWithUnsatisfaction(literals, begin, end);
+    }
+
+    /**
+     * Collects the clauses labelling the edges leaving each atom, as {@link LTURGraph#putClause} adds them
+     * @param clauses   Clauses
+     * @param first     Identifier of the first clause
+     * @return
+     */
+    private static HashMap<Integer, IntList> edges(GraphClause[] clauses, int first) {
+        HashMap<Integer, IntList> edges = new HashMap<>();
+        for (int k = 0; k<clauses.length; k++) {
+            int[] l = clauses[k].getLiterals();
+            LTURGraph.putClause((x, y, h) -> edges.computeIfAbsent(x, key -> new IntList()).add(h),
+                    first + k, l, 0, l.length);
+        }
+        return edges;
+    }
+}
@@ -20,6 +20,7 @@
 
 package it.giacomobergami.ltur;
 
+import it.giacomobergami.ltur.structure.CompiledKB;
 import it.giacomobergami.ltur.structure.clauses.HornClause;
 
 import java.util.ArrayList;
@@ -27,11 +28,11 @@ import java.util.ArrayList;
 public class Main {
 
     public static void main(String args[]) {
-        LTUR ltur = new LTUR();
         ArrayList<HornClause> alhc = new ArrayList<>();
         alhc.add(HornClause.classicHornClause("B", "A"));
         alhc.add(HornClause.negatedHeadHornClause("C", "B"));
-        System.out.println(ltur.query(alhc, HornClause.fact("A"), HornClause.fact("C")));
+        LTUR ltur = new LTUR(CompiledKB.compile(alhc));
+        System.out.println(ltur.query(HornClause.fact("A"), HornClause.fact("C")));
     }
 
 }
@@ -0,0 +1,240 @@
+/*
+ * QueryCache.java
+ * This file is part of ltur
+ *
+ * Copyright (C) 2018 giacomo
+ *
+ * ltur is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * ltur is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ltur. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package it.giacomobergami.ltur;
+
+import it.giacomobergami.ltur.structure.LTURResult;
+import it.giacomobergami.ltur.structure.clauses.HornClause;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded cache of the query results of an engine, evicting the least recently used ones. Each query is identified by
+ * the multiset of its clauses, regardless of their order, and by the version of the engine state, so that any
+ * assertion, retraction or pop invalidates the cached results. Unsatisfiable results are only reused for the same
+ * clause order, as the inconsistent atoms they report depend on it. The cache is shared by the copies of the engine that
+ * evaluate {@link LTUR#queryAll(java.util.List)}, and it is thread safe.
+ *
+ * The cached results are shared by all the queries hitting them, and must not be modified.
+ *
+ * @see LTUR#enableQueryCache(int)
+ */
+public class QueryCache {
+
+    /**
+     * Order of the clauses within the key: by hash, and then by representation
+     */
+    private static final Comparator<HornClause> CANONICAL =
+            Comparator.comparingInt(HornClause::hashCode).thenComparing(HornClause::toString);
+
+    private final int maxEntries;
+    private final LinkedHashMap<Key, CachedResult> entries;
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long invalidations;
+
+    QueryCache(int maxEntries) {
+        if (maxEntries <= 0)
+            throw new IllegalArgumentException("The cache must hold at least one result: " + maxEntries);
+        this.maxEntries = maxEntries;
+        entries = new LinkedHashMap<Key, CachedResult>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, CachedResult> eldest) {
+                if (size() <= QueryCache.this.maxEntries) return false;
+                evictions++;
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Returns the cached result of the query
+     * @param version           Version of the engine state
+     * @param clauses           Clauses of the query
+     * @param firstQueryClause  Identifier of the first query clause
+     * @return                  The result, whose query clause identifiers follow the order of the given clauses, or
+     *                          null if the query was never cached
+     */
+    LTURResult get(long version, HornClause[] clauses, int firstQueryClause) {
+        Key key = new Key(version, clauses);
+        CachedResult entry;
+        boolean sameOrder;
+        synchronized (this) {
+            entry = entries.get(key);
+            sameOrder = entry != null && Arrays.equals(entry.clauses, clauses);
+            // The inconsistent atoms of an unsatisfiable query depend on the order of its clauses
+            if (entry == null || (!sameOrder && !entry.result.isSatisfiable())) {
+                misses++;
+                return null;
+            }
+            hits++;
+        }
+        if (sameOrder) return entry.result;
+        // The same clauses in a different order: the position of each cached clause within the new query
+        int[] positions = new int[clauses.length];
+        for (int t = 0; t<clauses.length; t++) {
+            positions[entry.canonical[t]] = key.canonical[t];
+        }
+        return entry.result.reorderQueryClauses(firstQueryClause, positions);
+    }
+
+    /**
+     * Caches the result of the query
+     * @param version   Version of the engine state
+     * @param clauses   Clauses of the query, in evaluation order
+     * @param result    Result of the query
+     */
+    void put(long version, HornClause[] clauses, LTURResult result) {
+        Key key = new Key(version, clauses);
+        CachedResult entry = new CachedResult(clauses.clone(), key.canonical, result);
+        synchronized (this) {
+            entries.put(key, entry);
+        }
+    }
+
+    /**
+     * Forgets all the cached results, as the engine state changed
+     */
+    public synchronized void invalidate() {
+        if (!entries.isEmpty()) invalidations++;
+        entries.clear();
+    }
+
+    public int maxEntries() {
+        return maxEntries;
+    }
+
+    /**
+     * Number of the cached results
+     * @return
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Number of the queries whose result was found in the cache
+     * @return
+     */
+    public synchronized long hits() {
+        return hits;
+    }
+
+    /**
+     * Number of the queries whose result was not in the cache
+     * @return
+     */
+    public synchronized long misses() {
+        return misses;
+    }
+
+    /**
+     * Number of the results that were removed to make room for newer ones
+     * @return
+     */
+    public synchronized long evictions() {
+        return evictions;
+    }
+
+    /**
+     * Number of the times the cached results were discarded because the engine state changed
+     * @return
+     */
+    public synchronized long invalidations() {
+        return invalidations;
+    }
+
+    /**
+     * Fraction of the queries whose result was found in the cache
+     * @return  The rate, or 0 if no query was evaluated
+     */
+    public synchronized double hitRate() {
+        return hits + misses == 0 ? 0 : (double) hits / (hits + misses);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "QueryCache{" +
+                "size=" + entries.size() +
+                ", maxEntries=" + maxEntries +
+                ", hits=" + hits +
+                ", misses=" + misses +
+                ", evictions=" + evictions +
+                ", invalidations=" + invalidations +
+                '}';
+    }
+
+    /**
+     * Version and sorted clauses of a query
+     */
+    private static class Key {
+        private final long version;
+        private final HornClause[] sorted;
+
+        /**
+         * Position within the query of each sorted clause
+         */
+        private final int[] canonical;
+        private final int hash;
+
+        Key(long version, HornClause[] clauses) {
+            this.version = version;
+            Integer[] order = new Integer[clauses.length];
+            for (int i = 0; i<order.length; i++) order[i] = i;
+            Arrays.sort(order, (i, j) -> CANONICAL.compare(clauses[i], clauses[j]));
+            sorted = new HornClause[clauses.length];
+            canonical = new int[clauses.length];
+            for (int t = 0; t<order.length; t++) {
+                canonical[t] = order[t];
+                sorted[t] = clauses[order[t]];
+            }
+            hash = 31 * Long.hashCode(version) + Arrays.hashCode(sorted);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Key key = (Key) o;
+            return version == key.version && hash == key.hash && Arrays.equals(sorted, key.sorted);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private static class CachedResult {
+        private final HornClause[] clauses;
+        private final int[] canonical;
+        private final LTURResult result;
+
+        CachedResult(HornClause[] clauses, int[] canonical, LTURResult result) {
+            this.clauses = clauses;
+            this.canonical = canonical;
+            this.result = result;
+        }
+    }
+}
@@ -0,0 +1,329 @@
+/*
+ * ClauseFileLoader.java
+ * This file is part of ltur
+ *
+ * Copyright (C) 2018 giacomo
+ *
+ * ltur is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * ltur is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ltur. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package it.giacomobergami.ltur.io;
+
+import it.giacomobergami.ltur.structure.CompiledKB;
+import it.giacomobergami.ltur.structure.atoms.AtomTable;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Loads the clauses stored in a file straight into a {@link CompiledKB.Builder}, without creating a
+ * {@link it.giacomobergami.ltur.structure.clauses.HornClause} per clause. The file is memory-mapped in windows of at
+ * most 2GB, and parsed one line at a time.
+ *
+ * Two formats are supported:
+ * <ul>
+ *     <li>{@link Format#TEXT}: one clause per line, as in <code>a, b -> c</code>, <code>a, b -> !c</code>, <code>c</code>
+ *     or <code>!c</code>. The body atoms are separated by either <code>,</code> or <code>∧</code>, the implication is
+ *     either <code>-></code> or <code>⇒</code>, and the negation either <code>!</code> or <code>¬</code>, so that the
+ *     output of {@link it.giacomobergami.ltur.structure.clauses.HornClause#toString()} can be read back. Everything
+ *     after a <code>#</code> is a comment.</li>
+ *     <li>{@link Format#DIMACS}: DIMACS CNF, where each clause contains at most one positive literal. The atom
+ *     names are the variable numbers.</li>
+ * </ul>
+ */
+public class ClauseFileLoader {
+
+    public enum Format {
+        TEXT, DIMACS;
+
+        /**
+         * @param file  File to be loaded
+         * @return      {@link #DIMACS} for the .cnf and .dimacs files, {@link #TEXT} otherwise
+         */
+        public static Format of(Path file) {
+            String name = file.getFileName().toString().toLowerCase();
+            return name.endsWith(".cnf") || name.endsWith(".dimacs") ? DIMACS : TEXT;
+        }
+    }
+
+    private static final byte[] NEGATION = "\u00ac".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] CONJUNCTION = "\u2227".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] IMPLICATION = "\u21d2".getBytes(StandardCharsets.UTF_8);
+
+    /**
+     * Maximum size of a mapped window
+     */
+    private final long window;
+    private final Format format;
+    private final CompiledKB.Builder builder;
+    private final AtomTable atoms;
+
+    /**
+     * Literals of the clause being parsed: the DIMACS clauses may span several lines
+     */
+    private int[] clause = new int[16];
+    private int clauseSize = 0;
+    private int head = AtomTable.NONE;
+    /**
+     * DIMACS variable number to atom identifier, or 0 if not interned yet
+     */
+    private int[] variables = new int[16];
+    private byte[] name = new byte[64];
+    private MappedByteBuffer buffer;
+    private long line = 0;
+    private int clauses = 0;
+
+    ClauseFileLoader(Format format, CompiledKB.Builder builder, long window) {
+        this.format = format;
+        this.builder = builder;
+        this.atoms = builder.atoms();
+        this.window = window;
+    }
+
+    /**
+     * Loads a file, whose format is guessed from its extension
+     * @param file  File to be loaded
+     * @return      The compiled clauses
+     * @throws IOException
+     */
+    public static CompiledKB load(Path file) throws IOException {
+        return load(file, Format.of(file));
+    }
+
+    public static CompiledKB load(Path file, Format format) throws IOException {
+        return load(file, format, false);
+    }
+
+    /**
+     * Loads a file
+     * @param file      File to be loaded
+     * @param format    Format of the file
+     * @param offHeap   Whether the clauses and the graph are built off-heap, without ever being stored on the heap
+     * @return          The compiled clauses
+     * @throws IOException
+     */
+    public static CompiledKB load(Path file, Format format, boolean offHeap) throws IOException {
+        CompiledKB.Builder builder = new CompiledKB.Builder(offHeap);
+        load(file, format, builder);
+        return builder.build();
+    }
+
+    /**
+     * Adds the clauses of the file to the builder
+     * @param file      File to be loaded
+     * @param format    Format of the file
+     * @param builder   Destination of the clauses
+     * @return          Number of the clauses loaded
+     * @throws IOException
+     * @throws IllegalArgumentException     If the file is not well formed, or contains non-Horn clauses
+     */
+    public static int load(Path file, Format format, CompiledKB.Builder builder) throws IOException {
+        return new ClauseFileLoader(format, builder, Integer.MAX_VALUE).read(file);
+    }
+
+    int read(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size(), position = 0;
+            while (position < size) {
+                int length = (int)Math.min(window, size - position);
+                boolean last = position + length == size;
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+                int start = 0;
+                while (start < length) {
+                    int end = start;
+                    while (end < length && buffer.get(end) != '\n') end++;
+                    if (end == length && !last) break;
+                    line++;
+                    if (format == Format.TEXT) {
+                        text(start, end);
+                    } else {
+                        dimacs(start, end);
+                    }
+                    start = end + 1;
+                }
+                if (start == 0)
+                    throw new IOException("Line " + (line + 1) + " is longer than the mapped window");
+                position += Math.min(start, length);
+            }
+        } finally {
+            buffer = null;
+        }
+        if (clauseSize > 0 || head != AtomTable.NONE)
+            throw error("the last clause is not terminated by 0");
+        return clauses;
+    }
+
+    private void text(int begin, int end) {
+        for (int i = begin; i<end; i++) {
+            if (buffer.get(i) == '#') {
+                end = i;
+                break;
+            }
+        }
+        begin = skipSpaces(begin, end);
+        end = trimSpaces(begin, end);
+        if (begin == end) return;
+
+        int arrow = AtomTable.NONE, arrowEnd = AtomTable.NONE;
+        for (int i = begin; i<end && arrow == AtomTable.NONE; i++) {
+            if (buffer.get(i) == '-' && i + 1 < end && buffer.get(i + 1) == '>') {
+                arrow = i;
+                arrowEnd = i + 2;
+            } else if (matches(i, end, IMPLICATION)) {
+                arrow = i;
+                arrowEnd = i + IMPLICATION.length;
+            }
+        }
+
+        int headBegin = begin;
+        if (arrow != AtomTable.NONE) {
+            int atomBegin = begin;
+            for (int i = begin; i<=arrow; i++) {
+                int separator = i == arrow ? 0 : (buffer.get(i) == ',' ? 1 : (matches(i, arrow, CONJUNCTION) ? CONJUNCTION.length : 0));
+                if (i == arrow || separator > 0) {
+                    int b = skipSpaces(atomBegin, i), e = trimSpaces(b, i);
+                    if (b == e) {
+                        if (i != arrow || clauseSize > 0)
+                            throw error("empty body atom");
+                    } else {
+                        if (negation(b, e) > 0)
+                            throw error("negated body atom");
+                        add(AtomTable.literal(atom(b, e), true));
+                    }
+                    i += Math.max(separator - 1, 0);
+                    atomBegin = i + 1;
+                }
+            }
+            headBegin = skipSpaces(arrowEnd, end);
+        }
+
+        int negation = negation(headBegin, end);
+        int b = skipSpaces(headBegin + negation, end);
+        if (b == end)
+            throw error("missing head");
+        add(AtomTable.literal(atom(b, end), negation > 0));
+        emit();
+    }
+
+    private void dimacs(int begin, int end) {
+        begin = skipSpaces(begin, end);
+        if (begin == end) return;
+        byte first = buffer.get(begin);
+        if (first == 'c' || first == 'p' || first == '%') return;
+        int i = begin;
+        while (i < end) {
+            i = skipSpaces(i, end);
+            if (i == end) break;
+            boolean negated = false;
+            if (buffer.get(i) == '-') {
+                negated = true;
+                i++;
+            }
+            int variable = 0, digits = 0;
+            for (; i<end && buffer.get(i) >= '0' && buffer.get(i) <= '9'; i++, digits++) {
+                variable = variable * 10 + (buffer.get(i) - '0');
+                if (variable < 0) throw error("variable out of range");
+            }
+            if (digits == 0 || (i < end && !isSpace(buffer.get(i))))
+                throw error("invalid literal");
+            if (variable == 0) {
+                if (head != AtomTable.NONE) add(head);
+                if (clauseSize == 0)
+                    throw error("empty clause");
+                emit();
+                head = AtomTable.NONE;
+            } else if (negated) {
+                add(AtomTable.literal(variable(variable), true));
+            } else {
+                int literal = AtomTable.literal(variable(variable), false);
+                if (head != AtomTable.NONE && head != literal)
+                    throw error("non-Horn clause, having more than one positive literal");
+                head = literal;
+            }
+        }
+    }
+
+    private int variable(int variable) {
+        if (variable >= variables.length) {
+            variables = Arrays.copyOf(variables, Math.max(variables.length * 2, variable + 1));
+        }
+        if (variables[variable] == 0) {
+            variables[variable] = atoms.intern(Integer.toString(variable));
+        }
+        return variables[variable];
+    }
+
+    private int atom(int begin, int end) {
+        int length = end - begin;
+        if (length > name.length) {
+            name = new byte[Math.max(name.length * 2, length)];
+        }
+        for (int i = 0; i<length; i++) {
+            name[i] = buffer.get(begin + i);
+        }
+        return atoms.intern(new String(name, 0, length, StandardCharsets.UTF_8));
+    }
+
+    private void add(int literal) {
+        if (clauseSize == clause.length) {
+            clause = Arrays.copyOf(clause, clause.length * 2);
+        }
+        clause[clauseSize++] = literal;
+    }
+
+    private void emit() {
+        builder.addClause(clause, 0, clauseSize);
+        clauseSize = 0;
+        clauses++;
+    }
+
+    /**
+     * @return  The length of the negation symbol at the given position, or 0 if there is none
+     */
+    private int negation(int i, int end) {
+        if (i < end && buffer.get(i) == '!') return 1;
+        return matches(i, end, NEGATION) ? NEGATION.length : 0;
+    }
+
+    private boolean matches(int i, int end, byte[] symbol) {
+        if (end - i < symbol.length) return false;
+        for (int j = 0; j<symbol.length; j++) {
+            if (buffer.get(i + j) != symbol[j]) return false;
+        }
+        return true;
+    }
+
+    private int skipSpaces(int begin, int end) {
+        while (begin < end && isSpace(buffer.get(begin))) begin++;
+        return begin;
+    }
+
+    private int trimSpaces(int begin, int end) {
+        while (end > begin && isSpace(buffer.get(end - 1))) end--;
+        return end;
+    }
+
+    private static boolean isSpace(byte b) {
+        return b == ' ' || b == '\t' || b == '\r';
+    }
+
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException("Line " + line + ": " + message);
+    }
+}
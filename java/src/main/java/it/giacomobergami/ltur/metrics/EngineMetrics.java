@@ -0,0 +1,92 @@
+/*
+ * EngineMetrics.java
+ * This file is part of ltur
+ *
+ * Copyright (C) 2018 giacomo
+ *
+ * ltur is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * ltur is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ltur. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package it.giacomobergami.ltur.metrics;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Aggregates the metrics of the queries, which can be read at any time via {@link #snapshot()}. It can be shared by
+ * many engines and threads.
+ */
+public class EngineMetrics implements MetricsListener {
+
+    private final LongAdder queries = new LongAdder();
+    private final LongAdder cacheHits = new LongAdder();
+    private final LongAdder unsatisfiable = new LongAdder();
+    private final LongAdder clausesPopped = new LongAdder();
+    private final LongAdder decrements = new LongAdder();
+    private final LongAdder assignments = new LongAdder();
+    private final LongAdder conflicts = new LongAdder();
+    private final LongAdder initializeNanos = new LongAdder();
+    private final LongAdder propagationNanos = new LongAdder();
+    private final LongAdder resultNanos = new LongAdder();
+    private final LongAdder restoreNanos = new LongAdder();
+    private final LongAccumulator maxQueryNanos = new LongAccumulator(Math::max, 0);
+
+    @Override
+    public void onQuery(QueryMetrics metrics) {
+        queries.increment();
+        if (!metrics.isSatisfiable()) unsatisfiable.increment();
+        clausesPopped.add(metrics.clausesPopped());
+        decrements.add(metrics.decrements());
+        assignments.add(metrics.assignments());
+        conflicts.add(metrics.conflicts());
+        initializeNanos.add(metrics.initializeNanos());
+        propagationNanos.add(metrics.propagationNanos());
+        resultNanos.add(metrics.resultNanos());
+        restoreNanos.add(metrics.restoreNanos());
+        maxQueryNanos.accumulate(metrics.totalNanos());
+    }
+
+    @Override
+    public void onCacheHit() {
+        cacheHits.increment();
+    }
+
+    /**
+     * Returns the totals collected so far. The queries running concurrently may be only partially included
+     * @return
+     */
+    public MetricsSnapshot snapshot() {
+        return new MetricsSnapshot(queries.sum(), cacheHits.sum(), unsatisfiable.sum(), clausesPopped.sum(),
+                decrements.sum(), assignments.sum(), conflicts.sum(), initializeNanos.sum(), propagationNanos.sum(),
+                resultNanos.sum(), restoreNanos.sum(), maxQueryNanos.get());
+    }
+
+    /**
+     * Forgets the metrics collected so far
+     */
+    public void reset() {
+        queries.reset();
+        cacheHits.reset();
+        unsatisfiable.reset();
+        clausesPopped.reset();
+        decrements.reset();
+        assignments.reset();
+        conflicts.reset();
+        initializeNanos.reset();
+        propagationNanos.reset();
+        resultNanos.reset();
+        restoreNanos.reset();
+        maxQueryNanos.reset();
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * JfrMetricsListener.java
+ * This file is part of ltur
+ *
+ * Copyright (C) 2018 giacomo
+ *
+ * ltur is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * ltur is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ltur. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package it.giacomobergami.ltur.metrics;
+
+/**
+ * Emits a JDK Flight Recorder event ({@code it.giacomobergami.ltur.Query}) for each query, while a recording is
+ * enabling it. Each event spans its query, from {@link #onQueryStart()} to {@link #onQuery(QueryMetrics)}.
+ *
+ * The JFR classes are only loaded when this listener is created, so the engine still runs on the JVMs lacking them.
+ * This listener and its event are compiled for Java 11 by the {@code jfr} profile, active when building on JDK 11+.
+ */
+public class JfrMetricsListener implements MetricsListener {
+
+    /**
+     * Event of the query running on each thread, if enabled
+     */
+    private final ThreadLocal<QueryEvent> events = new ThreadLocal<>();
+
+    @Override
+    public void onQueryStart() {
+        QueryEvent event = new QueryEvent();
+        if (event.isEnabled()) {
+            event.begin();
+            events.set(event);
+        } else {
+            events.remove();
+        }
+    }
+
+    @Override
+    public void onQuery(QueryMetrics metrics) {
+        QueryEvent event = events.get();
+        if (event == null) return;
+        events.remove();
+        event.end();
+        event.queryClauses = metrics.queryClauses();
+        event.satisfiable = metrics.isSatisfiable();
+        event.clausesPopped = metrics.clausesPopped();
+        event.decrements = metrics.decrements();
+        event.assignments = metrics.assignments();
+        event.conflicts = metrics.conflicts();
+        event.initializeNanos = metrics.initializeNanos();
+        event.propagationNanos = metrics.propagationNanos();
+        event.resultNanos = metrics.resultNanos();
+        event.restoreNanos = metrics.restoreNanos();
+        event.totalNanos = metrics.totalNanos();
+        event.commit();
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * MetricsListener.java
+ * This file is part of ltur
+ *
+ * Copyright (C) 2018 giacomo
+ *
+ * ltur is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * ltur is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ltur. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package it.giacomobergami.ltur.metrics;
+
+/**
+ * Receives the metrics of each query evaluated by an engine, on the thread evaluating it.
+ *
+ * @see it.giacomobergami.ltur.LTUR#setMetricsListener(MetricsListener)
+ */
+public interface MetricsListener {
+
+    /**
+     * Invoked when each query starts, before the {@link #onQuery(QueryMetrics)} on the same thread
+     */
+    default void onQueryStart() {
+    }
+
+    /**
+     * Invoked after each query
+     * @param metrics   Metrics of the query
+     */
+    void onQuery(QueryMetrics metrics);
+
+    /**
+     * Invoked when a query is answered by the query cache, instead of {@link #onQueryStart()} and
+     * {@link #onQuery(QueryMetrics)}, as it is not evaluated
+     */
+    default void onCacheHit() {
+    }
+
+    /**
+     * Returns a listener notifying both this listener and the given one
+     * @param other     Listener notified after this one
+     * @return
+     */
+    default MetricsListener andThen(MetricsListener other) {
+        MetricsListener first = this;
+        return new MetricsListener() {
+            @Override
+            public void onQueryStart() {
+                first.onQueryStart();
+                other.onQueryStart();
+            }
+
+            @Override
+            public void onQuery(QueryMetrics metrics) {
+                first.onQuery(metrics);
+                other.onQuery(metrics);
+            }
+
+            @Override
+            public void onCacheHit() {
+                first.onCacheHit();
+                other.onCacheHit();
+            }
+        };
+    }
+}
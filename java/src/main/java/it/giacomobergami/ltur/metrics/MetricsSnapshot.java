@@ -0,0 +1,156 @@
+/*
+ * MetricsSnapshot.java
+ * This file is part of ltur
+ *
+ * Copyright (C) 2018 giacomo
+ *
+ * ltur is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * ltur is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ltur. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package it.giacomobergami.ltur.metrics;
+
+/**
+ * Totals of the metrics of the queries, as collected by {@link EngineMetrics}. See {@link QueryMetrics} for the
+ * meaning of each counter and phase.
+ */
+public class MetricsSnapshot {
+
+    private final long queries;
+    private final long cacheHits;
+    private final long unsatisfiable;
+    private final long clausesPopped;
+    private final long decrements;
+    private final long assignments;
+    private final long conflicts;
+    private final long initializeNanos;
+    private final long propagationNanos;
+    private final long resultNanos;
+    private final long restoreNanos;
+    private final long maxQueryNanos;
+
+    MetricsSnapshot(long queries, long cacheHits, long unsatisfiable, long clausesPopped, long decrements,
+                    long assignments, long conflicts, long initializeNanos, long propagationNanos,
+                    long resultNanos, long restoreNanos, long maxQueryNanos) {
+        this.queries = queries;
+        this.cacheHits = cacheHits;
+        this.unsatisfiable = unsatisfiable;
+        this.clausesPopped = clausesPopped;
+        this.decrements = decrements;
+        this.assignments = assignments;
+        this.conflicts = conflicts;
+        this.initializeNanos = initializeNanos;
+        this.propagationNanos = propagationNanos;
+        this.resultNanos = resultNanos;
+        this.restoreNanos = restoreNanos;
+        this.maxQueryNanos = maxQueryNanos;
+    }
+
+    /**
+     * Number of the evaluated queries, excluding the ones answered by the query cache
+     * @return
+     */
+    public long queries() {
+        return queries;
+    }
+
+    /**
+     * Number of the queries answered by the query cache, which are not included in the other metrics
+     * @return
+     */
+    public long cacheHits() {
+        return cacheHits;
+    }
+
+    /**
+     * Number of the queries whose result was not satisfiable
+     * @return
+     */
+    public long unsatisfiable() {
+        return unsatisfiable;
+    }
+
+    public long clausesPopped() {
+        return clausesPopped;
+    }
+
+    public long decrements() {
+        return decrements;
+    }
+
+    public long assignments() {
+        return assignments;
+    }
+
+    public long conflicts() {
+        return conflicts;
+    }
+
+    public long initializeNanos() {
+        return initializeNanos;
+    }
+
+    public long propagationNanos() {
+        return propagationNanos;
+    }
+
+    public long resultNanos() {
+        return resultNanos;
+    }
+
+    public long restoreNanos() {
+        return restoreNanos;
+    }
+
+    /**
+     * Total time of the slowest query
+     * @return
+     */
+    public long maxQueryNanos() {
+        return maxQueryNanos;
+    }
+
+    /**
+     * Total time of all the queries
+     * @return
+     */
+    public long totalNanos() {
+        return initializeNanos + propagationNanos + resultNanos + restoreNanos;
+    }
+
+    /**
+     * Average time of a query
+     * @return  The time, or 0 if no query was evaluated
+     */
+    public double averageQueryNanos() {
+        return queries == 0 ? 0 : (double) totalNanos() / queries;
+    }
+
+    @Override
+    public String toString() {
+        return "MetricsSnapshot{" +
+                "queries=" + queries +
+                ", cacheHits=" + cacheHits +
+                ", unsatisfiable=" + unsatisfiable +
+                ", clausesPopped=" + clausesPopped +
+                ", decrements=" + decrements +
+                ", assignments=" + assignments +
+                ", conflicts=" + conflicts +
+                ", initializeNanos=" + initializeNanos +
+                ", propagationNanos=" + propagationNanos +
+                ", resultNanos=" + resultNanos +
+                ", restoreNanos=" + restoreNanos +
+                ", maxQueryNanos=" + maxQueryNanos +
+                '}';
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * QueryEvent.java
+ * This file is part of ltur
+ *
+ * Copyright (C) 2018 giacomo
+ *
+ * ltur is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * ltur is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ltur. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package it.giacomobergami.ltur.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * Flight Recorder event describing a query, see {@link QueryMetrics}
+ */
+@Name("it.giacomobergami.ltur.Query")
+@Label("LTUR Query")
+@Category("LTUR")
+@Description("Propagation counters and phase timings of a query")
+class QueryEvent extends Event {
+
+    @Label("Query Clauses")
+    int queryClauses;
+
+    @Label("Satisfiable")
+    boolean satisfiable;
+
+    @Label("Clauses Popped")
+    long clausesPopped;
+
+    @Label("Counter Decrements")
+    long decrements;
+
+    @Label("Atoms Assigned")
+    long assignments;
+
+    @Label("Conflicts")
+    long conflicts;
+
+    @Label("Initialize")
+    @Timespan(Timespan.NANOSECONDS)
+    long initializeNanos;
+
+    @Label("Propagation")
+    @Timespan(Timespan.NANOSECONDS)
+    long propagationNanos;
+
+    @Label("Result")
+    @Timespan(Timespan.NANOSECONDS)
+    long resultNanos;
+
+    @Label("Restore")
+    @Timespan(Timespan.NANOSECONDS)
+    long restoreNanos;
+
+    @Label("Total")
+    @Timespan(Timespan.NANOSECONDS)
+    long totalNanos;
+}
@@ -0,0 +1,145 @@
+/*
+ * QueryMetrics.java
+ * This file is part of ltur
+ *
+ * Copyright (C) 2018 giacomo
+ *
+ * ltur is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * ltur is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ltur. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package it.giacomobergami.ltur.metrics;
+
+/**
+ * Cost of a single query. The counters are the changes of the propagation state caused by the query clauses, and the
+ * times are split among the phases of the query:
+ * <ol>
+ *     <li>initialize: asserting the query clauses, that is interning their atoms and adding their edges;</li>
+ *     <li>propagation: the unit propagation of the query clauses (ltur);</li>
+ *     <li>result: collecting the changes of the propagation state made by the query, from which the result computes
+ *     its clauses and its assignment when they are first accessed, outside of the query;</li>
+ *     <li>restore: retracting the query clauses.</li>
+ * </ol>
+ */
+public class QueryMetrics {
+
+    private final int queryClauses;
+    private final boolean satisfiable;
+    private final long clausesPopped;
+    private final long decrements;
+    private final long assignments;
+    private final long conflicts;
+    private final long initializeNanos;
+    private final long propagationNanos;
+    private final long resultNanos;
+    private final long restoreNanos;
+
+    public QueryMetrics(int queryClauses, boolean satisfiable, long clausesPopped, long decrements, long assignments,
+                        long conflicts, long initializeNanos, long propagationNanos, long resultNanos,
+                        long restoreNanos) {
+        this.queryClauses = queryClauses;
+        this.satisfiable = satisfiable;
+        this.clausesPopped = clausesPopped;
+        this.decrements = decrements;
+        this.assignments = assignments;
+        this.conflicts = conflicts;
+        this.initializeNanos = initializeNanos;
+        this.propagationNanos = propagationNanos;
+        this.resultNanos = resultNanos;
+        this.restoreNanos = restoreNanos;
+    }
+
+    /**
+     * Number of the clauses of the query
+     * @return
+     */
+    public int queryClauses() {
+        return queryClauses;
+    }
+
+    public boolean isSatisfiable() {
+        return satisfiable;
+    }
+
+    /**
+     * Number of the clauses that were popped from the propagation set S
+     * @return
+     */
+    public long clausesPopped() {
+        return clausesPopped;
+    }
+
+    /**
+     * Number of the decrements of the clause counters
+     * @return
+     */
+    public long decrements() {
+        return decrements;
+    }
+
+    /**
+     * Number of the atoms that were assigned by the propagation
+     * @return
+     */
+    public long assignments() {
+        return assignments;
+    }
+
+    /**
+     * Number of the clauses that became unsatisfied
+     * @return
+     */
+    public long conflicts() {
+        return conflicts;
+    }
+
+    public long initializeNanos() {
+        return initializeNanos;
+    }
+
+    public long propagationNanos() {
+        return propagationNanos;
+    }
+
+    public long resultNanos() {
+        return resultNanos;
+    }
+
+    public long restoreNanos() {
+        return restoreNanos;
+    }
+
+    /**
+     * Time spent by the whole query
+     * @return
+     */
+    public long totalNanos() {
+        return initializeNanos + propagationNanos + resultNanos + restoreNanos;
+    }
+
+    @Override
+    public String toString() {
+        return "QueryMetrics{" +
+                "queryClauses=" + queryClauses +
+                ", satisfiable=" + satisfiable +
+                ", clausesPopped=" + clausesPopped +
+                ", decrements=" + decrements +
+                ", assignments=" + assignments +
+                ", conflicts=" + conflicts +
+                ", initializeNanos=" + initializeNanos +
+                ", propagationNanos=" + propagationNanos +
+                ", resultNanos=" + resultNanos +
+                ", restoreNanos=" + restoreNanos +
+                '}';
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * Agenda.java
+ * This file is part of ltur
+ *
+ * Copyright (C) 2018 giacomo
+ *
+ * ltur is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * ltur is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ltur. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package it.giacomobergami.ltur.structure;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Clauses waiting for propagation (the set S of LTUR), each appearing at most once. A bitset tells the clauses that are
+ * currently queued, while the order in which they are polled depends on the {@link Policy}. Polling is deterministic:
+ * the same sequence of additions always provides the same sequence of clauses.
+ */
+public class Agenda {
+
+    /**
+     * Order in which the clauses are polled
+     */
+    public enum Policy {
+        /**
+         * In insertion order
+         */
+        FIFO,
+
+        /**
+         * Last inserted first
+         */
+        LIFO,
+
+        /**
+         * Largest fan-out first, that is the clauses whose positive atom labels more edges. Ties are broken by clause
+         * identifier
+         */
+        FAN_OUT
+    }
+
+    private final Policy policy;
+
+    /**
+     * Fan-out of each clause, read when the clause is added
+     */
+    private final IntUnaryOperator fanOut;
+    private final BitSet queued = new BitSet();
+
+    /**
+     * Ring buffer (FIFO) or stack (LIFO) of the clauses, or binary heap (FAN_OUT) of the clauses along with their
+     * priority, in the upper 32 bits
+     */
+    private int[] items;
+    private long[] heap;
+    private int head;
+    private int size;
+
+    /**
+     * @param policy    Order in which the clauses are polled
+     * @param fanOut    Fan-out of each clause, only used by {@link Policy#FAN_OUT}
+     */
+    public Agenda(Policy policy, IntUnaryOperator fanOut) {
+        this.policy = policy;
+        this.fanOut = fanOut;
+        if (policy == Policy.FAN_OUT) heap = new long[16];
+        else items = new int[16];
+    }
+
+    public Policy policy() {
+        return policy;
+    }
+
+    /**
+     * Adds the clause, unless it is already queued
+     * @param clause    Clause identifier
+     * @return          Whether the clause was added
+     */
+    public boolean add(int clause) {
+        if (queued.get(clause)) return false;
+        queued.set(clause);
+        if (policy == Policy.FAN_OUT) {
+            if (size == heap.length) heap = Arrays.copyOf(heap, size * 2);
+            // The smallest key has the largest fan-out
+            heap[size] = ((long) (Integer.MAX_VALUE - fanOut.applyAsInt(clause)) << 32) | clause;
+            siftUp(size++);
+        } else {
+            if (size == items.length) grow();
+            items[(head + size++) % items.length] = clause;
+        }
+        return true;
+    }
+
+    /**
+     * Removes the next clause
+     * @return  Clause identifier
+     * @throws RuntimeException     If the agenda is empty
+     */
+    public int poll() {
+        if (size == 0)
+            throw new RuntimeException("Unexpected error: polling an empty agenda");
+        int clause;
+        switch (policy) {
+            case FIFO:
+                clause = items[head];
+                head = (head + 1) % items.length;
+                size--;
+                break;
+            case LIFO:
+                clause = items[(head + --size) % items.length];
+                break;
+            default:
+                clause = (int) heap[0];
+                heap[0] = heap[--size];
+                siftDown(0);
+                break;
+        }
+        queued.clear(clause);
+        return clause;
+    }
+
+    /**
+     * Removes all the clauses
+     * @return  The removed clauses, in polling order
+     */
+    public int[] drain() {
+        int[] clauses = new int[size];
+        for (int i = 0; i<clauses.length; i++) {
+            clauses[i] = poll();
+        }
+        return clauses;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Bytes taken in the java heap
+     * @return
+     */
+    public long heapBytes() {
+        return Footprint.object(12, 4) + Footprint.bitSet(queued.size())
+                + (heap == null ? Footprint.array(items.length, 4) : Footprint.array(heap.length, 8));
+    }
+
+    private void grow() {
+        int[] grown = new int[items.length * 2];
+        for (int i = 0; i<size; i++) {
+            grown[i] = items[(head + i) % items.length];
+        }
+        items = grown;
+        head = 0;
+    }
+
+    private void siftUp(int i) {
+        long key = heap[i];
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (heap[parent] <= key) break;
+            heap[i] = heap[parent];
+            i = parent;
+        }
+        heap[i] = key;
+    }
+
+    private void siftDown(int i) {
+        long key = heap[i];
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= size) break;
+            if (child + 1 < size && heap[child + 1] < heap[child]) child++;
+            if (heap[child] >= key) break;
+            heap[i] = heap[child];
+            i = child;
+        }
+        heap[i] = key;
+    }
+}
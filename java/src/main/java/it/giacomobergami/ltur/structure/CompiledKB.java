@@ -0,0 +1,501 @@
+/*
+ * CompiledKB.java
+ * This file is part of ltur
+ *
+ * Copyright (C) 2018 giacomo
+ *
+ * ltur is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * ltur is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ltur. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package it.giacomobergami.ltur.structure;
+
+import it.giacomobergami.ltur.structure.atoms.AtomTable;
+import it.giacomobergami.ltur.structure.clauses.GraphClause;
+import it.giacomobergami.ltur.structure.clauses.HornClause;
+import it.giacomobergami.ltur.structure.graph.LTURGraph;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Knowledge Base compiled once for LTUR, and then shared by all the queries: atom dictionary, clause literals,
+ * implication graph and initial clause counters. Once built, it is never modified.
+ *
+ * Each clause is identified by its insertion position. Its literals are the ones of {@link HornClause#asGraphClause()},
+ * that is the negated body atoms followed by the head.
+ */
+public class CompiledKB {
+
+    /**
+     * Knowledge base containing no clauses
+     */
+    public static final CompiledKB EMPTY = new Builder().build();
+
+    private final AtomTable atoms;
+    private final LTURGraph graph;
+
+    /**
+     * The literals of clause c are stored from clauseOffsets[c] to clauseOffsets[c+1]
+     */
+    private final IntArray clauseOffsets;
+    private final IntArray literals;
+
+    /**
+     * Positive atom of each clause, or {@link AtomTable#NONE}
+     */
+    private final IntArray heads;
+
+    /**
+     * Number of the negated atoms of each clause, that is the initial value of the LTUR counters
+     */
+    private final IntArray counters;
+
+    /**
+     * Clauses with no negated atoms, from which LTUR starts the propagation
+     */
+    private final int[] initialClauses;
+
+    /**
+     * Clauses of each positive atom, computed on first use: the clauses whose positive atom is x are stored from
+     * definitionOffsets[x] to definitionOffsets[x+1]
+     */
+    private volatile int[] definitionOffsets;
+    private int[] definitions;
+
+    /**
+     * Clauses indexed by the hash of their literals, computed on first use: the clauses whose hash, masked by
+     * hashOffsets.length - 2, is h are stored from hashOffsets[h] to hashOffsets[h+1]
+     */
+    private volatile int[] hashOffsets;
+    private int[] hashClauses;
+
+    CompiledKB(AtomTable atoms, LTURGraph graph, IntArray clauseOffsets, IntArray literals, IntArray heads, IntArray counters, int[] initialClauses) {
+        this.atoms = atoms;
+        this.graph = graph;
+        this.clauseOffsets = clauseOffsets;
+        this.literals = literals;
+        this.heads = heads;
+        this.counters = counters;
+        this.initialClauses = initialClauses;
+    }
+
+    /**
+     * Compiles the knowledge base
+     * @param clauses   Clauses representing the Knowledge Base
+     * @return          The compiled knowledge base
+     */
+    public static CompiledKB compile(Collection<HornClause> clauses) {
+        Builder b = new Builder();
+        clauses.forEach(b::add);
+        return b.build();
+    }
+
+    /**
+     * Compiles the knowledge base on a fork/join pool. The result is the same as the one of {@link #compile(Collection)}
+     * @param clauses       Clauses representing the Knowledge Base
+     * @param parallelism   Number of the worker threads
+     * @return              The compiled knowledge base
+     */
+    public static CompiledKB compile(List<HornClause> clauses, int parallelism) {
+        return ParallelCompiler.compile(clauses, parallelism);
+    }
+
+    /**
+     * Removes the tautologies, the duplicated clauses and the clauses subsumed by other ones. The guarantees only hold
+     * for the KB as compiled, and not under later retractions: e.g. retracting the fact a from the simplified KB does
+     * not restore the removed rule b -> a, which it subsumed. For the KB as compiled, the queries keep the same
+     * satisfiability, and the satisfiable ones the same least model. The rest of the results may differ: the minimal
+     * consistent assignment may infer fewer false atoms, as a removed tautology could derive a query fact again, and
+     * the unsatisfiable queries may report other atoms, as a removed clause could still derive its head after the
+     * clause subsuming it is unsatisfied
+     * @return  The simplified knowledge base, sharing the atom dictionary of this one, and the removed clauses
+     */
+    public Simplification simplify() {
+        return KBSimplifier.simplify(this);
+    }
+
+    /**
+     * Writes the compiled knowledge base into a binary snapshot
+     * @param file      Destination file, which is overwritten
+     * @throws IOException
+     */
+    public void save(Path file) throws IOException {
+        KBSnapshot.write(this, file);
+    }
+
+    /**
+     * Reads a knowledge base written by {@link #save(Path)}, without compiling it again
+     * @param file      Snapshot file
+     * @return          The compiled knowledge base
+     * @throws IOException  If the file is not a snapshot, or was written with a different version of the format
+     */
+    public static CompiledKB load(Path file) throws IOException {
+        return KBSnapshot.read(file, false);
+    }
+
+    /**
+     * Reads a knowledge base written by {@link #save(Path)}, without compiling it again
+     * @param file      Snapshot file
+     * @param offHeap   Whether the clauses and the graph are served straight from the memory-mapped file, instead of
+     *                  being copied on the heap
+     * @return          The compiled knowledge base
+     * @throws IOException  If the file is not a snapshot, or was written with a different version of the format
+     */
+    public static CompiledKB load(Path file, boolean offHeap) throws IOException {
+        return KBSnapshot.read(file, offHeap);
+    }
+
+    /**
+     * Returns the same knowledge base, storing the clauses and the graph off-heap. The atom dictionary stays on the heap.
+     * As this KB was already built on the heap, the peak heap usage is not reduced: build the KB with
+     * {@link Builder#Builder(boolean)} or load it with {@link #load(Path, boolean)} to avoid the heap copy
+     * @return
+     */
+    public CompiledKB offHeap() {
+        if (isOffHeap()) return this;
+        return new CompiledKB(atoms, graph.offHeap(), IntArray.offHeap(clauseOffsets), IntArray.offHeap(literals),
+                IntArray.offHeap(heads), IntArray.offHeap(counters), initialClauses);
+    }
+
+    /**
+     * Returns the memory taken by the knowledge base: atom names, implication graph, clause literals, heads and
+     * counters
+     * @return
+     */
+    public Footprint footprint() {
+        return new Footprint()
+                .add("atom names", atoms.heapBytes(), 0)
+                .add("implication graph", graph.heapBytes(), graph.offHeapBytes())
+                .add("clause literals", clauseOffsets.heapBytes() + literals.heapBytes(),
+                        clauseOffsets.offHeapBytes() + literals.offHeapBytes())
+                .add("clause heads and counters", heads.heapBytes() + counters.heapBytes()
+                        + Footprint.array(initialClauses.length, 4), heads.offHeapBytes() + counters.offHeapBytes())
+                .add("clause definitions", definitionOffsets == null ? 0
+                        : Footprint.array(definitionOffsets.length, 4) + Footprint.array(definitions.length, 4), 0)
+                .add("clause index", hashOffsets == null ? 0
+                        : Footprint.array(hashOffsets.length, 4) + Footprint.array(hashClauses.length, 4), 0);
+    }
+
+    public boolean isOffHeap() {
+        return literals.isOffHeap();
+    }
+
+    public AtomTable atoms() {
+        return atoms;
+    }
+
+    public LTURGraph graph() {
+        return graph;
+    }
+
+    public int clauseCount() {
+        return heads.length();
+    }
+
+    /**
+     * Position of the first literal of the clause within {@link #literals()}
+     * @param clause    Clause identifier
+     * @return
+     */
+    public int clauseBegin(int clause) {
+        return clauseOffsets.get(clause);
+    }
+
+    /**
+     * Position following the last literal of the clause within {@link #literals()}
+     * @param clause    Clause identifier
+     * @return
+     */
+    public int clauseEnd(int clause) {
+        return clauseOffsets.get(clause + 1);
+    }
+
+    /**
+     * Returns the literals of all the clauses
+     * @return
+     */
+    public IntArray literals() {
+        return literals;
+    }
+
+    /**
+     * Returns the literal at the given position of {@link #literals()}
+     * @param i     Position of the literal
+     * @return
+     */
+    public int literal(int i) {
+        return literals.get(i);
+    }
+
+    /**
+     * Returns the positive atom of the clause
+     * @param clause    Clause identifier
+     * @return          The atom identifier, or {@link AtomTable#NONE}
+     */
+    public int head(int clause) {
+        return heads.get(clause);
+    }
+
+    /**
+     * Returns the number of the negated atoms of the clause
+     * @param clause    Clause identifier
+     * @return
+     */
+    public int counter(int clause) {
+        return counters.get(clause);
+    }
+
+    /**
+     * Position of the first clause having the atom as positive atom, within {@link #definition(int)}
+     * @param atom  Atom identifier
+     * @return
+     */
+    public int definitionBegin(int atom) {
+        int[] offsets = definitionOffsets();
+        return atom < offsets.length - 1 ? offsets[atom] : 0;
+    }
+
+    /**
+     * Position following the last clause having the atom as positive atom, within {@link #definition(int)}
+     * @param atom  Atom identifier
+     * @return
+     */
+    public int definitionEnd(int atom) {
+        int[] offsets = definitionOffsets();
+        return atom < offsets.length - 1 ? offsets[atom + 1] : 0;
+    }
+
+    /**
+     * Returns the clause at the given position, where the clauses are sorted by positive atom
+     * @param i     Position, between {@link #definitionBegin(int)} and {@link #definitionEnd(int)} of its atom
+     * @return      Clause identifier
+     */
+    public int definition(int i) {
+        return definitions[i];
+    }
+
+    /**
+     * Indexes the clauses by positive atom, the first time it is needed
+     */
+    private int[] definitionOffsets() {
+        int[] offsets = definitionOffsets;
+        if (offsets != null) return offsets;
+        synchronized (this) {
+            if (definitionOffsets != null) return definitionOffsets;
+            int n = clauseCount();
+            offsets = new int[atoms.size() + 1];
+            for (int c = 0; c<n; c++) {
+                if (heads.get(c) != AtomTable.NONE) offsets[heads.get(c) + 1]++;
+            }
+            for (int x = 0; x<atoms.size(); x++) {
+                offsets[x + 1] += offsets[x];
+            }
+            int[] next = Arrays.copyOf(offsets, atoms.size());
+            definitions = new int[offsets[atoms.size()]];
+            for (int c = 0; c<n; c++) {
+                if (heads.get(c) != AtomTable.NONE) definitions[next[heads.get(c)]++] = c;
+            }
+            definitionOffsets = offsets;
+            return offsets;
+        }
+    }
+
+    /**
+     * Returns the clauses having exactly the given literals, in the same order
+     * @param clauseLiterals    Literals interned in {@link #atoms()}: the negated body atoms followed by the head
+     * @return                  The clause identifiers, in increasing order
+     */
+    public int[] clausesWithLiterals(int[] clauseLiterals) {
+        int[] offsets = hashOffsets();
+        int h = Arrays.hashCode(clauseLiterals) & (offsets.length - 2);
+        IntList found = new IntList(1);
+        for (int i = offsets[h]; i<offsets[h + 1]; i++) {
+            int c = hashClauses[i];
+            int begin = clauseBegin(c), end = clauseEnd(c);
+            boolean equal = end - begin == clauseLiterals.length;
+            for (int j = begin; j<end && equal; j++) {
+                equal = literals.get(j) == clauseLiterals[j - begin];
+            }
+            if (equal) found.add(c);
+        }
+        return found.toArray();
+    }
+
+    /**
+     * Same hash of {@link Arrays#hashCode(int[])}, over the literals of the clause
+     */
+    private int literalsHash(int clause) {
+        int hash = 1;
+        for (int i = clauseBegin(clause), end = clauseEnd(clause); i<end; i++) {
+            hash = 31 * hash + literals.get(i);
+        }
+        return hash;
+    }
+
+    /**
+     * Indexes the clauses by the hash of their literals, the first time it is needed
+     */
+    private int[] hashOffsets() {
+        int[] offsets = hashOffsets;
+        if (offsets != null) return offsets;
+        synchronized (this) {
+            if (hashOffsets != null) return hashOffsets;
+            int n = clauseCount();
+            int buckets = Integer.highestOneBit(Math.max(n, 1) * 2 - 1);
+            int[] hashes = new int[n];
+            offsets = new int[buckets + 1];
+            for (int c = 0; c<n; c++) {
+                hashes[c] = literalsHash(c) & (buckets - 1);
+                offsets[hashes[c] + 1]++;
+            }
+            for (int h = 0; h<buckets; h++) {
+                offsets[h + 1] += offsets[h];
+            }
+            int[] next = Arrays.copyOf(offsets, buckets);
+            hashClauses = new int[n];
+            for (int c = 0; c<n; c++) {
+                hashClauses[next[hashes[c]]++] = c;
+            }
+            hashOffsets = offsets;
+            return offsets;
+        }
+    }
+
+    /**
+     * Returns the clauses with no negated atoms. The array must not be modified
+     * @return
+     */
+    public int[] initialClauses() {
+        return initialClauses;
+    }
+
+    /**
+     * Rebuilds the clause as it was provided by the user
+     * @param clause    Clause identifier
+     * @return
+     */
+    public HornClause hornClause(int clause) {
+        int begin = clauseOffsets.get(clause), end = clauseOffsets.get(clause + 1);
+        int head = literals.get(end - 1);
+        String[] body = new String[end - begin - 1];
+        for (int i = begin; i<end-1; i++) {
+            body[i - begin] = atoms.name(AtomTable.atomOf(literals.get(i)));
+        }
+        String name = atoms.name(AtomTable.atomOf(head));
+        return AtomTable.isNegated(head) ? HornClause.negatedHeadHornClause(name, body) : HornClause.classicHornClause(name, body);
+    }
+
+    /**
+     * Rebuilds the clause in its disjuncted representation
+     * @param clause    Clause identifier
+     * @return
+     */
+    public GraphClause graphClause(int clause) {
+        return hornClause(clause).asGraphClause().intern(atoms);
+    }
+
+    /**
+     * Collects the clauses, and then compiles them
+     */
+    public static class Builder {
+        private final AtomTable atoms;
+        private final LTURGraph.Builder edges;
+        private final IntArray.Builder clauseOffsets;
+        private final IntArray.Builder literals;
+        private final IntArray.Builder heads;
+        private final IntArray.Builder counters;
+        private final IntList initialClauses = new IntList();
+
+        public Builder() {
+            this(new AtomTable(), false);
+        }
+
+        /**
+         * @param offHeap   Whether the clauses and the graph are stored off-heap while being added, so that they are
+         *                  never materialized on the heap
+         */
+        public Builder(boolean offHeap) {
+            this(new AtomTable(), offHeap);
+        }
+
+        /**
+         * @param atoms     Table providing the atom identifiers, which is shared with the built KB
+         * @param offHeap   Whether the clauses and the graph are stored off-heap
+         */
+        Builder(AtomTable atoms, boolean offHeap) {
+            this.atoms = atoms;
+            edges = new LTURGraph.Builder(offHeap);
+            clauseOffsets = new IntArray.Builder(offHeap);
+            literals = new IntArray.Builder(offHeap);
+            heads = new IntArray.Builder(offHeap);
+            counters = new IntArray.Builder(offHeap);
+            clauseOffsets.add(0);
+        }
+
+        public AtomTable atoms() {
+            return atoms;
+        }
+
+        /**
+         * Adds a clause to the knowledge base
+         * @param hc    Clause to be added
+         * @return      The clause identifier
+         */
+        public int add(HornClause hc) {
+            return addClause(hc.asGraphClause().intern(atoms).getLiterals());
+        }
+
+        /**
+         * Adds a clause to the knowledge base
+         * @param clauseLiterals    Literals interned in {@link #atoms()}: the negated body atoms followed by the head
+         * @return                  The clause identifier
+         */
+        public int addClause(int... clauseLiterals) {
+            return addClause(clauseLiterals, 0, clauseLiterals.length);
+        }
+
+        /**
+         * Adds a clause to the knowledge base, reading its literals from a slice of the given array
+         * @param clauseLiterals    Literals interned in {@link #atoms()}: the negated body atoms followed by the head
+         * @param begin             First literal of the clause
+         * @param end               Position after the last literal of the clause
+         * @return                  The clause identifier
+         */
+        public int addClause(int[] clauseLiterals, int begin, int end) {
+            int id = heads.size();
+            int head = AtomTable.NONE;
+            int v = 0;
+            for (int i = begin; i<end; i++) {
+                int l = clauseLiterals[i];
+                literals.add(l);
+                if (AtomTable.isNegated(l)) v++;
+                else head = AtomTable.atomOf(l);
+            }
+            clauseOffsets.add(literals.size());
+            heads.add(head);
+            counters.add(v);
+            if (v == 0) initialClauses.add(id);
+            LTURGraph.putClause(edges, id, clauseLiterals, begin, end);
+            return id;
+        }
+
+        public CompiledKB build() {
+            return new CompiledKB(atoms, edges.build(atoms.size()), clauseOffsets.build(), literals.build(),
+                    heads.build(), counters.build(), initialClauses.toArray());
+        }
+    }
+}
@@ -0,0 +1,252 @@
+/*
+ * Footprint.java
+ * This file is part of ltur
+ *
+ * Copyright (C) 2018 giacomo
+ *
+ * ltur is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * ltur is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ltur. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package it.giacomobergami.ltur.structure;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Memory taken by the structures of a knowledge base or of an engine, split by component. The heap bytes follow the
+ * layout of the 64-bit HotSpot JVM with compressed class pointers (12 bytes of object header, 16 of array header,
+ * objects aligned to 8 bytes), using compressed references when the maximum heap is below 32GB, and compact strings.
+ * The off-heap bytes are the ones of the direct and memory-mapped buffers.
+ *
+ * The footprint of the loaded structures is provided by {@link CompiledKB#footprint()} and by
+ * {@code LTUR.footprint()}, while {@link #estimate(long, long, long, double)} predicts it from the size of the KB.
+ */
+public class Footprint {
+
+    /**
+     * Size of a reference
+     */
+    public static final int REFERENCE = Runtime.getRuntime().maxMemory() < (32L << 30) ? 4 : 8;
+    private static final int OBJECT_HEADER = 12;
+    private static final int ARRAY_HEADER = 16;
+
+    /**
+     * Heap and off-heap bytes of each component
+     */
+    private final LinkedHashMap<String, long[]> components = new LinkedHashMap<>();
+
+    /**
+     * Adds the bytes to the component
+     * @param component     Name of the component, created if missing
+     * @param heapBytes     Bytes taken in the java heap
+     * @param offHeapBytes  Bytes taken outside the java heap
+     * @return              This footprint
+     */
+    public Footprint add(String component, long heapBytes, long offHeapBytes) {
+        long[] bytes = components.computeIfAbsent(component, c -> new long[2]);
+        bytes[0] += heapBytes;
+        bytes[1] += offHeapBytes;
+        return this;
+    }
+
+    /**
+     * Adds the components of the given footprint to this one
+     * @param other     Footprint to be added
+     * @return          This footprint
+     */
+    public Footprint add(Footprint other) {
+        other.components.forEach((c, bytes) -> add(c, bytes[0], bytes[1]));
+        return this;
+    }
+
+    /**
+     * Returns the components, in insertion order
+     * @return
+     */
+    public Iterable<String> components() {
+        return Collections.unmodifiableSet(components.keySet());
+    }
+
+    public long heapBytes(String component) {
+        long[] bytes = components.get(component);
+        return bytes == null ? 0 : bytes[0];
+    }
+
+    public long offHeapBytes(String component) {
+        long[] bytes = components.get(component);
+        return bytes == null ? 0 : bytes[1];
+    }
+
+    public long heapBytes() {
+        long sum = 0;
+        for (long[] bytes : components.values()) sum += bytes[0];
+        return sum;
+    }
+
+    public long offHeapBytes() {
+        long sum = 0;
+        for (long[] bytes : components.values()) sum += bytes[1];
+        return sum;
+    }
+
+    public long totalBytes() {
+        return heapBytes() + offHeapBytes();
+    }
+
+    /**
+     * Predicts the footprint of a KB and of an engine created over it by {@code LTUR.BaseModel}, with no asserted
+     * clauses, using the same components of {@code LTUR.footprint()}, including the base model shared by the engines
+     * and the query base copied by the first query. The trail only records the changes following the KB propagation, so
+     * that it is empty. The lists growing by doubling (atom names, assignment) are counted at their largest capacity,
+     * the agenda as if it held every clause, the clause definitions and the clause index as if they were built (by the
+     * first entailment check and the first query result accessed), and each literal is assumed to generate an edge, so
+     * that the prediction is an upper bound for the KBs having the given counts. The atoms that are inferred to be
+     * inconsistent are not included, as they depend on the queries.
+     * @param clauses               Number of the clauses
+     * @param atoms                 Number of the distinct atoms
+     * @param literals              Total number of the literals of the clauses, that is the sum of the body sizes
+     *                              plus one for each head
+     * @param averageNameLength     Average length of the atom names (as latin-1 characters)
+     * @return                      The predicted footprint
+     */
+    public static Footprint estimate(long clauses, long atoms, long literals, double averageNameLength) {
+        long nodes = atoms + 2;
+        Footprint f = new Footprint();
+        // The KB atoms, including the names of the reserved ones, and the empty table of the engine extending them
+        f.add("atom names", object(8, 3) + referenceArray(capacity(nodes))
+                + atoms * (object(8, 1) + array((long) Math.ceil(averageNameLength), 1))
+                + 2 * (object(8, 1) + array(1, 2)) + hashMap(atoms, object(4, 0))
+                + object(8, 3) + referenceArray(capacity(0)) + hashMap(0, 0), 0);
+        f.add("implication graph", object(0, 3) + 3 * object(0, 1) + array(nodes + 1, 4) + 2 * array(literals, 4), 0);
+        f.add("clause literals", 2 * object(0, 1) + array(clauses + 1, 4) + array(literals, 4), 0);
+        f.add("clause heads and counters", 2 * object(0, 1) + 3 * array(clauses, 4), 0);
+        f.add("clause definitions", array(nodes + 1, 4) + array(clauses, 4), 0);
+        f.add("clause index", array(Long.highestOneBit(Math.max(clauses, 1) * 2 - 1) + 1, 4) + array(clauses, 4), 0);
+        f.add("asserted clauses", object(4, 1) + referenceArray(0), 0);
+        // The counters double at the first assertion
+        f.add("vMap", array(2 * clauses, 4), 0);
+        f.add("ValMap", object(0, 2) + array(capacity((nodes + 31) / 32), 8) + intList(capacity(nodes)), 0);
+        f.add("delta graph", object(0, 1) + hashMap(0, 0), 0);
+        f.add("trail", 5 * intList(capacity(0)), 0);
+        f.add("propagation state", bitSet(nodes) + 2 * bitSet(clauses) + array(capacity(nodes), 4)
+                + object(0, 1) + hashMap(0, 0)
+                + object(12, 4) + bitSet(clauses) + array(capacity(clauses), 8), 0);
+        f.add("query base", object(0, 8) + referenceArray(0) + array(0, 4) + 2 * bitSet(clauses) + hashMap(0, 0)
+                + object(0, 2) + array(capacity((nodes + 31) / 32), 8) + intList(capacity(nodes)), 0);
+        f.add("shared base model", object(0, 7) + array(clauses, 4) + bitSet(nodes) + array(nodes, 4)
+                + bitSet(clauses) + hashMap(0, 0)
+                + object(0, 2) + array(capacity((nodes + 31) / 32), 8) + intList(capacity(nodes)), 0);
+        return f;
+    }
+
+    /**
+     * Predicts the largest footprint reached while compiling a KB via {@link CompiledKB.Builder}: the compiled KB,
+     * plus the lists collecting its clauses and edges at their largest capacity
+     * @param clauses               Number of the clauses
+     * @param atoms                 Number of the distinct atoms
+     * @param literals              Total number of the literals of the clauses
+     * @param averageNameLength     Average length of the atom names (as latin-1 characters)
+     * @return                      The predicted footprint, including the "compilation buffers" component
+     */
+    public static Footprint estimateCompilation(long clauses, long atoms, long literals, double averageNameLength) {
+        Footprint estimate = estimate(clauses, atoms, literals, averageNameLength);
+        Footprint f = new Footprint();
+        for (String c : new String[]{"atom names", "implication graph", "clause literals", "clause heads and counters"}) {
+            f.add(c, estimate.heapBytes(c), estimate.offHeapBytes(c));
+        }
+        return f.add("compilation buffers", 5 * intList(capacity(clauses)) + 4 * intList(capacity(literals)), 0);
+    }
+
+    /**
+     * Bytes of an array
+     * @param length        Number of the elements
+     * @param elementBytes  Size of each element
+     * @return
+     */
+    public static long array(long length, int elementBytes) {
+        return align(ARRAY_HEADER + length * elementBytes);
+    }
+
+    public static long referenceArray(long length) {
+        return array(length, REFERENCE);
+    }
+
+    /**
+     * Bytes of an object, excluding the objects it refers to
+     * @param primitiveBytes    Size of the primitive fields
+     * @param references        Number of the reference fields
+     * @return
+     */
+    public static long object(int primitiveBytes, int references) {
+        return align(OBJECT_HEADER + primitiveBytes + (long) references * REFERENCE);
+    }
+
+    /**
+     * Bytes of a string and of its characters
+     * @param s     String
+     * @return
+     */
+    public static long string(String s) {
+        boolean latin1 = true;
+        for (int i = 0; i<s.length() && latin1; i++) {
+            latin1 = s.charAt(i) < 256;
+        }
+        return object(8, 1) + array(s.length(), latin1 ? 1 : 2);
+    }
+
+    /**
+     * Bytes of a {@link java.util.HashMap} (or of a {@link java.util.HashSet}), excluding the keys
+     * @param entries       Number of the entries
+     * @param valueBytes    Bytes of each value that is not shared
+     * @return
+     */
+    public static long hashMap(long entries, long valueBytes) {
+        long table = entries == 0 ? 0 : referenceArray(capacity((long) Math.ceil(entries / 0.75)));
+        return object(16, 4) + table + entries * (object(4, 3) + valueBytes);
+    }
+
+    /**
+     * Bytes of a {@link java.util.BitSet}
+     * @param bits  Number of the bits it can hold, that is its {@link java.util.BitSet#size()}
+     * @return
+     */
+    public static long bitSet(long bits) {
+        return object(8, 1) + array((bits + 63) / 64, 8);
+    }
+
+    static long intList(long capacity) {
+        return object(4, 1) + array(capacity, 4);
+    }
+
+    /**
+     * Capacity of a list grown by doubling from 16 elements, once it holds n of them
+     */
+    static long capacity(long n) {
+        return n <= 16 ? 16 : Long.highestOneBit(n - 1) << 1;
+    }
+
+    private static long align(long bytes) {
+        return (bytes + 7) & ~7L;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        components.forEach((c, bytes) -> sb.append(c).append(": ").append(bytes[0]).append(" bytes on heap, ")
+                .append(bytes[1]).append(" off-heap\n"));
+        return sb.append("total: ").append(heapBytes()).append(" bytes on heap, ").append(offHeapBytes())
+                .append(" off-heap").toString();
+    }
+}
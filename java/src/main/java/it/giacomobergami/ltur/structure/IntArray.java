@@ -0,0 +1,296 @@
+/*
+ * IntArray.java
+ * This file is part of ltur
+ *
+ * Copyright (C) 2018 giacomo
+ *
+ * ltur is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * ltur is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ltur. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package it.giacomobergami.ltur.structure;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Immutable array of primitive integers, stored either on the heap or off-heap. The off-heap arrays are split into
+ * direct (or memory-mapped) buffers of at most 2^28 integers, so that they can exceed the size of a single buffer and
+ * are never scanned by the garbage collector.
+ *
+ * Both the implementations are final, so that the calls to {@link #get(int)} stay at most bimorphic. A {@link Builder}
+ * fills an off-heap array directly, without materializing it on the heap first.
+ */
+public abstract class IntArray {
+
+    /**
+     * Number of the integers of each off-heap buffer, as a power of 2
+     */
+    static final int CHUNK_BITS = 28;
+    static final int CHUNK = 1 << CHUNK_BITS;
+
+    public static final IntArray EMPTY = heap(new int[0]);
+
+    IntArray() {
+    }
+
+    public abstract int get(int i);
+
+    public abstract int length();
+
+    /**
+     * Whether the integers are stored outside the java heap
+     * @return
+     */
+    public abstract boolean isOffHeap();
+
+    /**
+     * Bytes taken in the java heap
+     * @return
+     */
+    public abstract long heapBytes();
+
+    /**
+     * Bytes taken outside the java heap, either by direct or memory-mapped buffers
+     * @return
+     */
+    public long offHeapBytes() {
+        return isOffHeap() ? 4L * length() : 0;
+    }
+
+    public int[] toArray() {
+        int[] values = new int[length()];
+        for (int i = 0; i<values.length; i++) {
+            values[i] = get(i);
+        }
+        return values;
+    }
+
+    /**
+     * Wraps the array, which is not copied and must not be modified afterwards
+     * @param values    Content of the array
+     * @return
+     */
+    public static IntArray heap(int[] values) {
+        return new Heap(values);
+    }
+
+    /**
+     * Copies the integers into direct buffers
+     * @param values    Content of the array
+     * @return
+     */
+    public static IntArray offHeap(IntArray values) {
+        Builder b = new Builder(true);
+        for (int i = 0, n = values.length(); i<n; i++) {
+            b.add(values.get(i));
+        }
+        return b.build();
+    }
+
+    /**
+     * Maps the little endian integers stored in the file, without copying them
+     * @param channel   File to be read
+     * @param position  Position of the first integer
+     * @param n         Number of the integers
+     * @return
+     * @throws IOException
+     */
+    public static IntArray map(FileChannel channel, long position, int n) throws IOException {
+        IntBuffer[] chunks = new IntBuffer[(n + CHUNK - 1) >>> CHUNK_BITS];
+        for (int k = 0; k<chunks.length; k++) {
+            int length = Math.min(n - (k << CHUNK_BITS), CHUNK);
+            chunks[k] = channel.map(FileChannel.MapMode.READ_ONLY, position + 4L * ((long)k << CHUNK_BITS), 4L * length)
+                    .order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+        }
+        return new OffHeap(chunks, CHUNK_BITS, n);
+    }
+
+    private static IntBuffer allocateDirect(int n) {
+        return ByteBuffer.allocateDirect(4 * n).order(ByteOrder.nativeOrder()).asIntBuffer();
+    }
+
+    /**
+     * Growable array of integers, filled either on the heap or directly off-heap
+     */
+    public static final class Builder {
+
+        /**
+         * Number of the integers of each off-heap block, as a power of 2
+         */
+        private static final int BLOCK_BITS = 16;
+        private static final int BLOCK = 1 << BLOCK_BITS;
+
+        private final boolean offHeap;
+        private int[] values;
+        private IntBuffer[] blocks;
+        private int size;
+
+        /**
+         * @param offHeap   Whether the integers are stored in direct buffers, and never copied on the heap
+         */
+        public Builder(boolean offHeap) {
+            this.offHeap = offHeap;
+            if (offHeap) blocks = new IntBuffer[0];
+            else values = new int[16];
+        }
+
+        public boolean isOffHeap() {
+            return offHeap;
+        }
+
+        public void add(int x) {
+            if (offHeap) {
+                if (size == blocks.length << BLOCK_BITS) {
+                    blocks = Arrays.copyOf(blocks, blocks.length + 1);
+                    blocks[blocks.length - 1] = allocateDirect(BLOCK);
+                }
+                blocks[size >>> BLOCK_BITS].put(size & (BLOCK - 1), x);
+            } else {
+                if (size == values.length) {
+                    values = Arrays.copyOf(values, size * 2);
+                }
+                values[size] = x;
+            }
+            size++;
+        }
+
+        /**
+         * Appends n zeros
+         * @param n     Number of the integers to be added
+         */
+        public void extend(int n) {
+            for (int i = 0; i<n; i++) {
+                add(0);
+            }
+        }
+
+        public int get(int i) {
+            return offHeap ? blocks[i >>> BLOCK_BITS].get(i & (BLOCK - 1)) : values[i];
+        }
+
+        public void set(int i, int x) {
+            if (offHeap) blocks[i >>> BLOCK_BITS].put(i & (BLOCK - 1), x);
+            else values[i] = x;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        /**
+         * Removes the integers, releasing their storage
+         */
+        public void clear() {
+            if (offHeap) blocks = new IntBuffer[0];
+            else values = new int[16];
+            size = 0;
+        }
+
+        /**
+         * Returns the integers added so far. The builder must not be used afterwards
+         * @return
+         */
+        public IntArray build() {
+            if (!offHeap) return heap(size == values.length ? values : Arrays.copyOf(values, size));
+            int last = (size + BLOCK - 1) >>> BLOCK_BITS;
+            IntBuffer[] chunks = Arrays.copyOf(blocks, last);
+            int tail = size & (BLOCK - 1);
+            if (tail != 0) {
+                // Trims the last block, so that small arrays do not take a whole block
+                IntBuffer trimmed = allocateDirect(tail);
+                for (int i = 0; i<tail; i++) {
+                    trimmed.put(i, chunks[last - 1].get(i));
+                }
+                chunks[last - 1] = trimmed;
+            }
+            return new OffHeap(chunks, BLOCK_BITS, size);
+        }
+    }
+
+    private static final class Heap extends IntArray {
+        private final int[] values;
+
+        Heap(int[] values) {
+            this.values = values;
+        }
+
+        @Override
+        public int get(int i) {
+            return values[i];
+        }
+
+        @Override
+        public int length() {
+            return values.length;
+        }
+
+        @Override
+        public boolean isOffHeap() {
+            return false;
+        }
+
+        @Override
+        public long heapBytes() {
+            return Footprint.object(0, 1) + Footprint.array(values.length, 4);
+        }
+
+        @Override
+        public int[] toArray() {
+            return values.clone();
+        }
+    }
+
+    private static final class OffHeap extends IntArray {
+        private final IntBuffer[] chunks;
+        private final int bits;
+        private final int mask;
+        private final int length;
+
+        /**
+         * @param chunks    Buffers containing 2^bits integers each, except for the last one
+         */
+        OffHeap(IntBuffer[] chunks, int bits, int length) {
+            this.chunks = chunks;
+            this.bits = bits;
+            this.mask = (1 << bits) - 1;
+            this.length = length;
+        }
+
+        @Override
+        public int get(int i) {
+            return chunks[i >>> bits].get(i & mask);
+        }
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public boolean isOffHeap() {
+            return true;
+        }
+
+        @Override
+        public long heapBytes() {
+            // Each chunk is an IntBuffer view of a ByteBuffer
+            return Footprint.object(12, 1) + Footprint.referenceArray(chunks.length)
+                    + chunks.length * 2 * Footprint.object(32, 3);
+        }
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * IntList.java
+ * This file is part of ltur
+ *
+ * Copyright (C) 2018 giacomo
+ *
+ * ltur is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * ltur is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ltur. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package it.giacomobergami.ltur.structure;
+
+import java.util.Arrays;
+
+/**
+ * Growable array of primitive integers, avoiding the boxing of the java collections
+ */
+public class IntList {
+
+    private int[] values;
+    private int size;
+
+    public IntList() {
+        this(16);
+    }
+
+    public IntList(int capacity) {
+        values = new int[Math.max(capacity, 1)];
+        size = 0;
+    }
+
+    public IntList(IntList list) {
+        values = Arrays.copyOf(list.values, Math.max(list.size, 1));
+        size = list.size;
+    }
+
+    public void add(int x) {
+        if (size == values.length) {
+            values = Arrays.copyOf(values, size * 2);
+        }
+        values[size++] = x;
+    }
+
+    public int get(int i) {
+        return values[i];
+    }
+
+    public void set(int i, int x) {
+        values[i] = x;
+    }
+
+    /**
+     * Removes and returns the last element
+     * @return
+     */
+    public int pop() {
+        return values[--size];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * Removes the elements following the first n ones
+     * @param n     Number of the elements to be preserved
+     */
+    public void truncate(int n) {
+        size = Math.min(size, n);
+    }
+
+    /**
+     * Sets the number of the elements, growing the array if needed. The values of the new elements are undefined
+     * @param n     Number of the elements
+     */
+    public void resize(int n) {
+        if (n > values.length) {
+            values = Arrays.copyOf(values, Math.max(values.length * 2, n));
+        }
+        size = n;
+    }
+
+    /**
+     * Bytes taken in the java heap
+     * @return
+     */
+    public long heapBytes() {
+        return Footprint.object(4, 1) + Footprint.array(values.length, 4);
+    }
+
+    public int[] toArray() {
+        return Arrays.copyOf(values, size);
+    }
+}
@@ -0,0 +1,226 @@
+/*
+ * KBSimplifier.java
+ * This file is part of ltur
+ *
+ * Copyright (C) 2018 giacomo
+ *
+ * ltur is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * ltur is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ltur. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package it.giacomobergami.ltur.structure;
+
+import it.giacomobergami.ltur.structure.atoms.AtomTable;
+
+import java.util.Arrays;
+
+/**
+ * Simplifies a compiled knowledge base. Each clause is seen as the multiset of its literals, as a clause repeating a
+ * negated atom is never fired by LTUR, and:
+ * <ol>
+ *     <li>the clauses containing both an atom and its negation are removed as tautologies;</li>
+ *     <li>the clauses are sorted by size and literals, so that the clauses with the same literals are adjacent, and
+ *     only the first one in KB order is kept;</li>
+ *     <li>each kept clause, from the smallest one, removes the larger clauses containing all of its literals. Such
+ *     clauses are looked for in the occurrences of its least frequent literal, and are first filtered by comparing
+ *     the 64 bits signatures of the literals.</li>
+ * </ol>
+ * As each clause can only be subsumed by smaller ones, the clauses subsuming the others are never removed. The kept
+ * clauses preserve their order within the KB.
+ */
+class KBSimplifier {
+
+    private final CompiledKB kb;
+    private final int n;
+
+    /**
+     * The sorted literals of clause c are stored from offsets[c] to offsets[c+1]
+     */
+    private final int[] offsets;
+    private final int[] literals;
+    private final long[] signatures;
+
+    /**
+     * Clause removing each clause, or {@link AtomTable#NONE}
+     */
+    private final int[] causes;
+    private final Simplification.Reason[] reasons;
+
+    private KBSimplifier(CompiledKB kb) {
+        this.kb = kb;
+        n = kb.clauseCount();
+        offsets = new int[n + 1];
+        IntList sorted = new IntList();
+        for (int c = 0; c<n; c++) {
+            int begin = kb.clauseBegin(c), end = kb.clauseEnd(c);
+            int[] clause = new int[end - begin];
+            for (int i = begin; i<end; i++) {
+                clause[i - begin] = kb.literal(i);
+            }
+            Arrays.sort(clause);
+            for (int l : clause) {
+                sorted.add(l);
+            }
+            offsets[c + 1] = sorted.size();
+        }
+        literals = sorted.toArray();
+        signatures = new long[n];
+        causes = new int[n];
+        reasons = new Simplification.Reason[n];
+        Arrays.fill(causes, AtomTable.NONE);
+    }
+
+    static Simplification simplify(CompiledKB kb) {
+        KBSimplifier s = new KBSimplifier(kb);
+        s.removeTautologies();
+        Integer[] order = s.removeDuplicates();
+        s.removeSubsumed(order);
+        return s.build();
+    }
+
+    private void removeTautologies() {
+        for (int c = 0; c<n; c++) {
+            long signature = 0;
+            for (int i = offsets[c]; i<offsets[c + 1]; i++) {
+                signature |= 1L << literals[i];
+                // The literals of an atom are adjacent once sorted
+                if (i > offsets[c] && literals[i] == AtomTable.negate(literals[i - 1]))
+                    reasons[c] = Simplification.Reason.TAUTOLOGY;
+            }
+            signatures[c] = signature;
+        }
+    }
+
+    /**
+     * Removes the clauses having the same literals of a previous one
+     * @return  The remaining clauses, sorted by size
+     */
+    private Integer[] removeDuplicates() {
+        int remaining = 0;
+        for (int c = 0; c<n; c++) {
+            if (reasons[c] == null) remaining++;
+        }
+        Integer[] order = new Integer[remaining];
+        for (int c = 0, k = 0; c<n; c++) {
+            if (reasons[c] == null) order[k++] = c;
+        }
+        Arrays.sort(order, (a, b) -> {
+            int cmp = compareLiterals(a, b);
+            return cmp != 0 ? cmp : Integer.compare(a, b);
+        });
+        int kept = 0;
+        int first = AtomTable.NONE;
+        for (int k = 0; k<order.length; k++) {
+            int c = order[k];
+            if (first != AtomTable.NONE && compareLiterals(first, c) == 0) {
+                remove(c, Simplification.Reason.DUPLICATE, first);
+            } else {
+                first = c;
+                order[kept++] = c;
+            }
+        }
+        return Arrays.copyOf(order, kept);
+    }
+
+    /**
+     * Removes the clauses whose literals include all the literals of a smaller clause
+     * @param order     Distinct clauses, sorted by size
+     */
+    private void removeSubsumed(Integer[] order) {
+        int[] occurrences = new int[2 * kb.atoms().size() + 1];
+        for (int c : order) {
+            for (int i = offsets[c]; i<offsets[c + 1]; i++) {
+                if (isFirstOccurrence(i, offsets[c])) occurrences[literals[i] + 1]++;
+            }
+        }
+        for (int l = 0; l<occurrences.length - 1; l++) {
+            occurrences[l + 1] += occurrences[l];
+        }
+        int[] occurring = new int[occurrences[occurrences.length - 1]];
+        int[] next = Arrays.copyOf(occurrences, occurrences.length - 1);
+        for (int c : order) {
+            for (int i = offsets[c]; i<offsets[c + 1]; i++) {
+                if (isFirstOccurrence(i, offsets[c])) occurring[next[literals[i]]++] = c;
+            }
+        }
+
+        for (int c : order) {
+            if (reasons[c] != null || offsets[c] == offsets[c + 1]) continue;
+            int rarest = literals[offsets[c]];
+            for (int i = offsets[c] + 1; i<offsets[c + 1]; i++) {
+                int l = literals[i];
+                if (occurrences[l + 1] - occurrences[l] < occurrences[rarest + 1] - occurrences[rarest]) rarest = l;
+            }
+            int size = offsets[c + 1] - offsets[c];
+            for (int k = occurrences[rarest]; k<occurrences[rarest + 1]; k++) {
+                int d = occurring[k];
+                if (reasons[d] != null || offsets[d + 1] - offsets[d] <= size) continue;
+                if ((signatures[c] & ~signatures[d]) == 0 && isSubset(c, d)) {
+                    remove(d, Simplification.Reason.SUBSUMED, c);
+                }
+            }
+        }
+    }
+
+    private void remove(int clause, Simplification.Reason reason, int cause) {
+        reasons[clause] = reason;
+        causes[clause] = cause;
+    }
+
+    private Simplification build() {
+        CompiledKB.Builder builder = new CompiledKB.Builder(kb.atoms(), kb.isOffHeap());
+        IntList kept = new IntList();
+        int[] clause = new int[0];
+        for (int c = 0; c<n; c++) {
+            if (reasons[c] != null) continue;
+            int begin = kb.clauseBegin(c), end = kb.clauseEnd(c);
+            if (clause.length < end - begin) clause = new int[end - begin];
+            for (int i = begin; i<end; i++) {
+                clause[i - begin] = kb.literal(i);
+            }
+            builder.addClause(clause, 0, end - begin);
+            kept.add(c);
+        }
+        return new Simplification(builder.build(), kept.toArray(), reasons, causes);
+    }
+
+    /**
+     * Compares the clauses by size, and then by their sorted literals
+     */
+    private int compareLiterals(int a, int b) {
+        int sizeA = offsets[a + 1] - offsets[a], sizeB = offsets[b + 1] - offsets[b];
+        if (sizeA != sizeB) return Integer.compare(sizeA, sizeB);
+        for (int i = 0; i<sizeA; i++) {
+            int cmp = Integer.compare(literals[offsets[a] + i], literals[offsets[b] + i]);
+            if (cmp != 0) return cmp;
+        }
+        return 0;
+    }
+
+    private boolean isFirstOccurrence(int i, int begin) {
+        return i == begin || literals[i] != literals[i - 1];
+    }
+
+    /**
+     * Checks whether all the literals of a also belong to b, as many times, merging their sorted literals
+     */
+    private boolean isSubset(int a, int b) {
+        int i = offsets[a], j = offsets[b];
+        while (i < offsets[a + 1]) {
+            if (j == offsets[b + 1] || literals[j] > literals[i]) return false;
+            if (literals[j] == literals[i]) i++;
+            j++;
+        }
+        return true;
+    }
+}
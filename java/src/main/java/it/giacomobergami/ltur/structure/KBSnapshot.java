@@ -0,0 +1,246 @@
+/*
+ * KBSnapshot.java
+ * This file is part of ltur
+ *
+ * Copyright (C) 2018 giacomo
+ *
+ * ltur is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * ltur is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ltur. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package it.giacomobergami.ltur.structure;
+
+import it.giacomobergami.ltur.structure.atoms.AtomTable;
+import it.giacomobergami.ltur.structure.graph.LTURGraph;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Binary snapshot of a {@link CompiledKB}. All the values are little endian, and the file contains:
+ * <ul>
+ *     <li>the header: magic number, version, atom, clause, literal, edge, initial clause and node counts, and the size
+ *     of the atom names;</li>
+ *     <li>the atom dictionary: the offsets of the UTF-8 names of the atoms following {@link AtomTable#BOT}, and the
+ *     names themselves, padded to a multiple of 4 bytes;</li>
+ *     <li>the clause offsets, literals, heads, counters and initial clauses;</li>
+ *     <li>the graph offsets, edge targets and edge clauses.</li>
+ * </ul>
+ * The sections are read through {@link FileChannel#map(FileChannel.MapMode, long, long)}, so that loading a snapshot
+ * amounts to either copying its arrays, or using the mapped sections as off-heap arrays.
+ */
+class KBSnapshot {
+
+    /**
+     * "LTUR" in ASCII
+     */
+    static final int MAGIC = 0x5255544C;
+
+    /**
+     * Format version, to be increased at each incompatible change
+     */
+    static final int VERSION = 1;
+
+    private static final int HEADER = 40;
+
+    private KBSnapshot() {
+    }
+
+    static void write(CompiledKB kb, Path file) throws IOException {
+        AtomTable atoms = kb.atoms();
+        LTURGraph graph = kb.graph();
+        int n = atoms.size();
+        int clauses = kb.clauseCount();
+        IntArray literals = kb.literals();
+        int[] initialClauses = kb.initialClauses();
+
+        byte[][] names = new byte[n][];
+        long nameBytes = 0;
+        for (int i = 2; i<n; i++) {
+            names[i] = atoms.name(i).getBytes(StandardCharsets.UTF_8);
+            nameBytes += names[i].length;
+        }
+        if (nameBytes > Integer.MAX_VALUE - 3)
+            throw new IOException("The atom names exceed the snapshot format limits");
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            Output out = new Output(channel);
+            out.putInt(MAGIC);
+            out.putInt(VERSION);
+            out.putInt(n);
+            out.putInt(clauses);
+            out.putInt(literals.length());
+            out.putInt(graph.edges());
+            out.putInt(initialClauses.length);
+            out.putInt(graph.nodes());
+            out.putLong(nameBytes);
+
+            int offset = 0;
+            out.putInt(offset);
+            for (int i = 2; i<n; i++) {
+                offset += names[i].length;
+                out.putInt(offset);
+            }
+            for (int i = 2; i<n; i++) {
+                out.putBytes(names[i]);
+            }
+            for (long i = nameBytes; i % 4 != 0; i++) {
+                out.putBytes(new byte[1]);
+            }
+
+            for (int c = 0; c<clauses; c++) {
+                out.putInt(kb.clauseBegin(c));
+            }
+            out.putInt(literals.length());
+            for (int i = 0; i<literals.length(); i++) out.putInt(literals.get(i));
+            for (int c = 0; c<clauses; c++) out.putInt(kb.head(c));
+            for (int c = 0; c<clauses; c++) out.putInt(kb.counter(c));
+            for (int c : initialClauses) out.putInt(c);
+
+            for (int x = 0; x<graph.nodes(); x++) {
+                out.putInt(graph.begin(x));
+            }
+            out.putInt(graph.edges());
+            for (int e = 0; e<graph.edges(); e++) out.putInt(graph.target(e));
+            for (int e = 0; e<graph.edges(); e++) out.putInt(graph.clause(e));
+            out.flush();
+        }
+    }
+
+    static CompiledKB read(Path file, boolean offHeap) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER)
+                throw new IOException("Not an LTUR snapshot: " + file);
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER).order(ByteOrder.LITTLE_ENDIAN);
+            if (header.getInt() != MAGIC)
+                throw new IOException("Not an LTUR snapshot: " + file);
+            int version = header.getInt();
+            if (version != VERSION)
+                throw new IOException("Unsupported snapshot version " + version + ", expected " + VERSION);
+            int n = header.getInt();
+            int clauses = header.getInt();
+            int literalCount = header.getInt();
+            int edges = header.getInt();
+            int initialCount = header.getInt();
+            int nodes = header.getInt();
+            int nameBytes = (int)header.getLong();
+
+            long expected = HEADER + 4L * (n - 1) + ((nameBytes + 3) & ~3L)
+                    + 4L * ((clauses + 1) + literalCount + 2L * clauses + initialCount + (nodes + 1) + 2L * edges);
+            if (channel.size() != expected)
+                throw new IOException("Truncated or corrupted LTUR snapshot: " + file);
+
+            long position = HEADER;
+            int[] nameOffsets = new int[n - 1];
+            position = readInts(channel, position, nameOffsets);
+            byte[] bytes = new byte[nameBytes];
+            if (nameBytes > 0) {
+                channel.map(FileChannel.MapMode.READ_ONLY, position, nameBytes).get(bytes);
+            }
+            position += (nameBytes + 3) & ~3L;
+            String[] names = new String[n];
+            for (int i = 2; i<n; i++) {
+                names[i] = new String(bytes, nameOffsets[i - 2], nameOffsets[i - 1] - nameOffsets[i - 2], StandardCharsets.UTF_8);
+            }
+
+            IntArray clauseOffsets = ints(channel, position, clauses + 1, offHeap);
+            position += 4L * (clauses + 1);
+            IntArray literals = ints(channel, position, literalCount, offHeap);
+            position += 4L * literalCount;
+            IntArray heads = ints(channel, position, clauses, offHeap);
+            position += 4L * clauses;
+            IntArray counters = ints(channel, position, clauses, offHeap);
+            position += 4L * clauses;
+            int[] initialClauses = new int[initialCount];
+            position = readInts(channel, position, initialClauses);
+
+            IntArray offsets = ints(channel, position, nodes + 1, offHeap);
+            position += 4L * (nodes + 1);
+            IntArray targets = ints(channel, position, edges, offHeap);
+            position += 4L * edges;
+            IntArray edgeClauses = ints(channel, position, edges, offHeap);
+
+            return new CompiledKB(AtomTable.of(names), LTURGraph.of(offsets, targets, edgeClauses),
+                    clauseOffsets, literals, heads, counters, initialClauses);
+        }
+    }
+
+    /**
+     * Reads n ints stored from the given position, either mapping them or copying them on the heap
+     */
+    private static IntArray ints(FileChannel channel, long position, int n, boolean offHeap) throws IOException {
+        if (offHeap) return IntArray.map(channel, position, n);
+        int[] values = new int[n];
+        readInts(channel, position, values);
+        return IntArray.heap(values);
+    }
+
+    /**
+     * Fills the array with the ints stored from the given position
+     * @return  The position following the ints
+     */
+    private static long readInts(FileChannel channel, long position, int[] destination) throws IOException {
+        for (int i = 0; i<destination.length; ) {
+            int length = Math.min(destination.length - i, IntArray.CHUNK);
+            channel.map(FileChannel.MapMode.READ_ONLY, position, 4L * length)
+                    .order(ByteOrder.LITTLE_ENDIAN).asIntBuffer().get(destination, i, length);
+            i += length;
+            position += 4L * length;
+        }
+        return position;
+    }
+
+    /**
+     * Buffers the values to be written into the channel
+     */
+    private static class Output {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20).order(ByteOrder.LITTLE_ENDIAN);
+
+        Output(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        void putInt(int value) throws IOException {
+            if (buffer.remaining() < 4) flush();
+            buffer.putInt(value);
+        }
+
+        void putLong(long value) throws IOException {
+            if (buffer.remaining() < 8) flush();
+            buffer.putLong(value);
+        }
+
+        void putBytes(byte[] bytes) throws IOException {
+            for (int i = 0; i<bytes.length; ) {
+                if (!buffer.hasRemaining()) flush();
+                int length = Math.min(bytes.length - i, buffer.remaining());
+                buffer.put(bytes, i, length);
+                i += length;
+            }
+        }
+
+        void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+    }
+}
@@ -20,15 +20,25 @@
 
 package it.giacomobergami.ltur.structure;
 
-
 import it.giacomobergami.ltur.structure.atoms.Atom;
+import it.giacomobergami.ltur.structure.atoms.AtomTable;
 import it.giacomobergami.ltur.structure.clauses.GraphClause;
 
+import java.util.BitSet;
 import java.util.HashSet;
-import java.util.Map;
+import java.util.PrimitiveIterator;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
 
 /**
- * This class provides the result of the satisfiability
+ * This class provides the result of the satisfiability.
+ *
+ * Clauses and atoms are stored as bitsets of their identifiers: the {@link GraphClause}s and the {@link Atom}s are only
+ * created when the getters returning them are invoked.
+ *
+ * The results of the queries only compute their clauses and atoms when any of them is first accessed, so that a query
+ * whose result is only checked for {@link #isSatisfiable()} does not pay for them. Once computed, the result can be
+ * read by many threads.
  */
 public class LTURResult {
 
@@ -40,25 +50,43 @@ public class LTURResult {
     private final boolean satisfiability;
 
     /**
-     * Set of clauses that are satisfied by the given KB+query
+     * Identifiers of the clauses that are satisfied by the given KB+query
+     */
+    private BitSet satisfiedClauses = new BitSet();
+
+    /**
+     * Identifiers of the clauses that are not satisfied by the given KB+query
+     */
+    private BitSet unsatisfiedClauses = new BitSet();
+
+    /**
+     * Provides the clause associated to each identifier
+     */
+    private IntFunction<GraphClause> clauses = c -> null;
+
+    /**
+     * Atoms that are respectively true and false in the minimal ground atom assignment that satisfy KB+Query. This
+     * means that all the remaining atoms (that do not appear in the minimalInconsistentAtomSets) can be set either to
+     * true or to false
      */
-    private HashSet<GraphClause> satisfiedClauses;
+    private BitSet trueAtoms = new BitSet();
+    private BitSet falseAtoms = new BitSet();
 
     /**
-     * Set of clauses that are not satisfied by the given KB+query
+     * Atoms that lead to some errors during the inference steps: each of them provides a minimal inconsistent set,
+     * made of the atom and of its negation
      */
-    private HashSet<GraphClause> unsatisfiedClauses;
+    private BitSet inconsistentAtoms = new BitSet();
 
     /**
-     * Set of atoms that provide the minimal ground atom assignment that satisfy KB+Query. This means that all the
-     * remaining atoms (that do not appear in the minimalInconsistentAtomSets) can be set either to true or to false
+     * Provides the names of the atom identifiers
      */
-    private HashSet<Atom> minimalConsistentAssigment;
+    private AtomTable atoms = new AtomTable();
 
     /**
-     * This set contains the set of the minimal inconsistent atoms that lead to some errors during the inference steps.
+     * Sets the clauses and the atoms when they are first accessed, or null if they were already set
      */
-    private HashSet<HashSet<Atom>> minimalInsonsistentAtomSets;
+    private volatile Consumer<LTURResult> source;
 
     public boolean isSatisfiable() {
         return satisfiability;
@@ -68,41 +96,256 @@ public class LTURResult {
         this.satisfiability = satisfiability;
     }
 
-    public void setSatisfiedClauses(HashSet<GraphClause> satisfiedClauses) {
-        this.satisfiedClauses = satisfiedClauses;
+    /**
+     * Creates a result whose clauses and atoms are computed the first time they are accessed
+     * @param satisfiability    Whether the KB and the query are satisfiable
+     * @param source            Sets the clauses and the atoms via the setters of the result: it is invoked at most
+     *                          once, by the thread first accessing them
+     */
+    public LTURResult(boolean satisfiability, Consumer<LTURResult> source) {
+        this.satisfiability = satisfiability;
+        this.source = source;
+    }
+
+    /**
+     * Computes the clauses and the atoms, unless they were already computed. If the source fails, the next access
+     * invokes it again
+     */
+    private void materialize() {
+        if (source == null) return;
+        synchronized (this) {
+            Consumer<LTURResult> s = source;
+            if (s == null) return;
+            s.accept(this);
+            source = null;
+        }
     }
 
-    public void setUnsatisfiedClauses(HashSet<GraphClause> unsatisfiedClauses) {
+    /**
+     * @param satisfiedClauses      Identifiers of the satisfied clauses
+     * @param unsatisfiedClauses    Identifiers of the unsatisfied clauses
+     * @param clauses               Provides the clause associated to each identifier, also after that the engine
+     *                              changed
+     */
+    public void setClauses(BitSet satisfiedClauses, BitSet unsatisfiedClauses, IntFunction<GraphClause> clauses) {
+        this.satisfiedClauses = satisfiedClauses;
         this.unsatisfiedClauses = unsatisfiedClauses;
+        this.clauses = clauses;
     }
 
-    public void setMinimalConsistentAssigment(ValMap minimalConsistentAssigment) {
-        if (this.minimalConsistentAssigment == null) {
-            this.minimalConsistentAssigment = new HashSet<>();
-        } else {
-            this.minimalConsistentAssigment.clear();
+    /**
+     * @param minimalConsistentAssigment    Values of the atoms
+     * @param atoms                         Table providing the atom names, which must not change afterwards
+     */
+    public void setMinimalConsistentAssigment(ValMap minimalConsistentAssigment, AtomTable atoms) {
+        trueAtoms = new BitSet();
+        falseAtoms = new BitSet();
+        for (int i = 0; i<minimalConsistentAssigment.size(); i++) {
+            int atom = minimalConsistentAssigment.atom(i);
+            (minimalConsistentAssigment.get(atom) == 1 ? trueAtoms : falseAtoms).set(atom);
+        }
+        this.atoms = atoms;
+    }
+
+    /**
+     * @param inconsistentAtoms     Atoms that were inferred to be both true and false
+     */
+    public void setMinimalInsonsistentAtoms(BitSet inconsistentAtoms) {
+        this.inconsistentAtoms = inconsistentAtoms;
+    }
+
+    /**
+     * Returns the same result for the same query clauses provided in a different order
+     * @param firstQueryClause  Identifier of the first query clause
+     * @param positions         New position within the query of each query clause
+     * @return                  A result sharing the atoms of this one
+     */
+    public LTURResult reorderQueryClauses(int firstQueryClause, int[] positions) {
+        int[] original = new int[positions.length];
+        for (int j = 0; j<positions.length; j++) {
+            original[positions[j]] = j;
         }
-        for (Map.Entry<Atom, Integer> x : minimalConsistentAssigment.entrySet()) {
-            if (x.getValue() == 0) {
-                this.minimalConsistentAssigment.add(x.getKey().negate());
-            } else {
-                this.minimalConsistentAssigment.add(x.getKey());
-            }
+        return new LTURResult(satisfiability, result -> {
+            materialize();
+            IntFunction<GraphClause> clauses = this.clauses;
+            result.setClauses(reorder(satisfiedClauses, firstQueryClause, positions),
+                    reorder(unsatisfiedClauses, firstQueryClause, positions),
+                    c -> clauses.apply(c < firstQueryClause ? c : firstQueryClause + original[c - firstQueryClause]));
+            result.trueAtoms = trueAtoms;
+            result.falseAtoms = falseAtoms;
+            result.inconsistentAtoms = inconsistentAtoms;
+            result.atoms = atoms;
+        });
+    }
+
+    private static BitSet reorder(BitSet ids, int firstQueryClause, int[] positions) {
+        BitSet reordered = ids.get(0, firstQueryClause);
+        for (int c = ids.nextSetBit(firstQueryClause); c >= 0; c = ids.nextSetBit(c + 1)) {
+            reordered.set(firstQueryClause + positions[c - firstQueryClause]);
         }
+        return reordered;
+    }
+
+    public int satisfiedCount() {
+        materialize();
+        return satisfiedClauses.cardinality();
+    }
+
+    public int unsatisfiedCount() {
+        materialize();
+        return unsatisfiedClauses.cardinality();
+    }
+
+    /**
+     * @param clause    Clause identifier: the KB clauses come first, followed by the asserted and the query ones
+     * @return          Whether the clause is satisfied
+     */
+    public boolean isSatisfied(int clause) {
+        materialize();
+        return satisfiedClauses.get(clause);
     }
 
-    public void setMinimalInsonsistentAtomSets(HashSet<HashSet<Atom>> minimalInsonsistentAtomSets) {
-        this.minimalInsonsistentAtomSets = minimalInsonsistentAtomSets;
+    /**
+     * @param clause    Clause identifier: the KB clauses come first, followed by the asserted and the query ones
+     * @return          Whether the clause is not satisfied
+     */
+    public boolean isUnsatisfied(int clause) {
+        materialize();
+        return unsatisfiedClauses.get(clause);
+    }
+
+    public PrimitiveIterator.OfInt satisfiedIds() {
+        materialize();
+        return satisfiedClauses.stream().iterator();
+    }
+
+    public PrimitiveIterator.OfInt unsatisfiedIds() {
+        materialize();
+        return unsatisfiedClauses.stream().iterator();
+    }
+
+    /**
+     * Creates the set of the satisfied clauses
+     * @return
+     */
+    public HashSet<GraphClause> getSatisfiedClauses() {
+        materialize();
+        return clauses(satisfiedClauses);
+    }
+
+    /**
+     * Creates the set of the unsatisfied clauses
+     * @return
+     */
+    public HashSet<GraphClause> getUnsatisfiedClauses() {
+        materialize();
+        return clauses(unsatisfiedClauses);
+    }
+
+    /**
+     * Number of the atoms in the minimal consistent assignment
+     * @return
+     */
+    public int assignmentSize() {
+        materialize();
+        return trueAtoms.cardinality() + falseAtoms.cardinality();
+    }
+
+    /**
+     * Returns the value of the atom in the minimal consistent assignment
+     * @param atom  Atom identifier
+     * @return      1, 0, or {@link ValMap#UNKNOWN}
+     */
+    public int value(int atom) {
+        materialize();
+        return trueAtoms.get(atom) ? 1 : (falseAtoms.get(atom) ? 0 : ValMap.UNKNOWN);
+    }
+
+    /**
+     * Checks whether the atom belongs to the minimal consistent assignment: negated atoms belong to it when they are
+     * false
+     * @param a     Atom, either negated or not
+     * @return
+     */
+    public boolean contains(Atom a) {
+        materialize();
+        int id = atoms.id(a.name);
+        return id != AtomTable.NONE && value(id) == (a.isNegated() ? 0 : 1);
+    }
+
+    public PrimitiveIterator.OfInt trueAtomIds() {
+        materialize();
+        return trueAtoms.stream().iterator();
+    }
+
+    public PrimitiveIterator.OfInt falseAtomIds() {
+        materialize();
+        return falseAtoms.stream().iterator();
+    }
+
+    /**
+     * Creates the set of the atoms in the minimal consistent assignment, where the false atoms are negated
+     * @return
+     */
+    public HashSet<Atom> getMinimalConsistentAssigment() {
+        materialize();
+        HashSet<Atom> set = new HashSet<>();
+        for (int x = trueAtoms.nextSetBit(0); x >= 0; x = trueAtoms.nextSetBit(x + 1)) {
+            set.add(atoms.literalAtom(AtomTable.literal(x, false)));
+        }
+        for (int x = falseAtoms.nextSetBit(0); x >= 0; x = falseAtoms.nextSetBit(x + 1)) {
+            set.add(atoms.literalAtom(AtomTable.literal(x, true)));
+        }
+        return set;
+    }
+
+    public int inconsistentCount() {
+        materialize();
+        return inconsistentAtoms.cardinality();
+    }
+
+    public boolean isInconsistent(int atom) {
+        materialize();
+        return inconsistentAtoms.get(atom);
+    }
+
+    public PrimitiveIterator.OfInt inconsistentAtomIds() {
+        materialize();
+        return inconsistentAtoms.stream().iterator();
+    }
+
+    /**
+     * Creates the minimal inconsistent sets, each containing an atom and its negation
+     * @return
+     */
+    public HashSet<HashSet<Atom>> getMinimalInsonsistentAtomSets() {
+        materialize();
+        HashSet<HashSet<Atom>> sets = new HashSet<>();
+        for (int x = inconsistentAtoms.nextSetBit(0); x >= 0; x = inconsistentAtoms.nextSetBit(x + 1)) {
+            HashSet<Atom> mis = new HashSet<>();
+            mis.add(atoms.literalAtom(AtomTable.literal(x, false)));
+            mis.add(atoms.literalAtom(AtomTable.literal(x, true)));
+            sets.add(mis);
+        }
+        return sets;
+    }
+
+    private HashSet<GraphClause> clauses(BitSet ids) {
+        HashSet<GraphClause> set = new HashSet<>();
+        for (int c = ids.nextSetBit(0); c >= 0; c = ids.nextSetBit(c + 1)) {
+            set.add(clauses.apply(c));
+        }
+        return set;
     }
 
     @Override
     public String toString() {
         return "LTURResult{" +
                 "\n\tsatisfiability := " + satisfiability +
-                ",\n\tsatisfiedClauses := " + satisfiedClauses +
-                ",\n\tunsatisfiedClauses := " + unsatisfiedClauses +
-                ",\n\tminimalConsistentAssigment := " + minimalConsistentAssigment +
-                ",\n\tminimalInsonsistentAtomSets := " + minimalInsonsistentAtomSets +
+                ",\n\tsatisfiedClauses := " + getSatisfiedClauses() +
+                ",\n\tunsatisfiedClauses := " + getUnsatisfiedClauses() +
+                ",\n\tminimalConsistentAssigment := " + getMinimalConsistentAssigment() +
+                ",\n\tminimalInsonsistentAtomSets := " + getMinimalInsonsistentAtomSets() +
                 "\n}";
     }
 }
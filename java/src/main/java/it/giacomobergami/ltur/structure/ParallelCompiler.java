@@ -0,0 +1,279 @@
+/*
+ * ParallelCompiler.java
+ * This file is part of ltur
+ *
+ * Copyright (C) 2018 giacomo
+ *
+ * ltur is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * ltur is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ltur. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package it.giacomobergami.ltur.structure;
+
+import it.giacomobergami.ltur.structure.atoms.AtomTable;
+import it.giacomobergami.ltur.structure.clauses.HornClause;
+import it.giacomobergami.ltur.structure.graph.LTURGraph;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.function.IntConsumer;
+
+/**
+ * Compiles a knowledge base using a fork/join pool. The clauses are split into chunks, and:
+ * <ol>
+ *     <li>each chunk is converted into literals of its own atom table;</li>
+ *     <li>the chunk tables are merged into the global one, in chunk order;</li>
+ *     <li>each chunk translates its literals, computes its counters and emits its edges, counting the out-degree of
+ *     each node;</li>
+ *     <li>a parallel prefix sum of the degrees provides the CSR offsets, and the chunks fill the adjacency arrays;</li>
+ *     <li>the edges of each node are sorted by clause.</li>
+ * </ol>
+ * The only sequential step is the merge of the atom tables. The atoms are interned in order of first occurrence and
+ * the edges of each node are sorted by clause, so the result is the same as the one of {@link CompiledKB.Builder}.
+ */
+class ParallelCompiler {
+
+    /**
+     * Minimum number of the clauses of a chunk
+     */
+    private static final int MIN_CHUNK = 4096;
+
+    private final List<HornClause> clauses;
+    private final ForkJoinPool pool;
+    private final Chunk[] chunks;
+
+    private ParallelCompiler(List<HornClause> clauses, ForkJoinPool pool) {
+        this.clauses = clauses;
+        this.pool = pool;
+        int n = clauses.size();
+        int size = Math.max(MIN_CHUNK, (n + pool.getParallelism() * 4 - 1) / (pool.getParallelism() * 4));
+        chunks = new Chunk[(n + size - 1) / size];
+        for (int k = 0; k<chunks.length; k++) {
+            chunks[k] = new Chunk(k * size, Math.min(n, (k + 1) * size));
+        }
+    }
+
+    static CompiledKB compile(List<HornClause> clauses, int parallelism) {
+        if (parallelism <= 1 || clauses.size() <= MIN_CHUNK) {
+            // Merging the chunk tables would only add work
+            return CompiledKB.compile(clauses);
+        }
+        ForkJoinPool pool = new ForkJoinPool(Math.max(parallelism, 1));
+        try {
+            return new ParallelCompiler(clauses, pool).compile();
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private CompiledKB compile() {
+        forEach(chunks.length, k -> chunks[k].intern());
+
+        AtomTable atoms = new AtomTable();
+        for (Chunk chunk : chunks) {
+            chunk.globalIds = new int[chunk.atoms.size()];
+            chunk.globalIds[AtomTable.TOP] = AtomTable.TOP;
+            chunk.globalIds[AtomTable.BOT] = AtomTable.BOT;
+            for (int i = 2; i<chunk.atoms.size(); i++) {
+                chunk.globalIds[i] = atoms.intern(chunk.atoms.name(i));
+            }
+            chunk.atoms = null;
+        }
+
+        int nodes = atoms.size();
+        AtomicIntegerArray degrees = new AtomicIntegerArray(nodes + 1);
+        forEach(chunks.length, k -> chunks[k].compile(degrees));
+
+        int[] offsets = new int[nodes + 1];
+        for (int x = 0; x<nodes; x++) {
+            offsets[x + 1] = degrees.get(x);
+        }
+        Arrays.parallelPrefix(offsets, Integer::sum);
+        int edges = offsets[nodes];
+        int[] targets = new int[edges];
+        int[] edgeClauses = new int[edges];
+        AtomicIntegerArray next = new AtomicIntegerArray(Arrays.copyOf(offsets, nodes));
+        forEach(chunks.length, k -> chunks[k].fill(next, targets, edgeClauses));
+        forEach(nodes, x -> sortByClause(targets, edgeClauses, offsets[x], offsets[x + 1]));
+
+        int clauseCount = clauses.size();
+        int[] literalOffsets = new int[chunks.length + 1];
+        int initialCount = 0;
+        for (int k = 0; k<chunks.length; k++) {
+            literalOffsets[k + 1] = literalOffsets[k] + chunks[k].literals.size();
+            initialCount += chunks[k].initialClauses.size();
+        }
+        int[] clauseOffsets = new int[clauseCount + 1];
+        int[] literals = new int[literalOffsets[chunks.length]];
+        int[] heads = new int[clauseCount];
+        int[] counters = new int[clauseCount];
+        int[] initialClauses = new int[initialCount];
+        int[] initialOffsets = new int[chunks.length];
+        for (int k = 1; k<chunks.length; k++) {
+            initialOffsets[k] = initialOffsets[k - 1] + chunks[k - 1].initialClauses.size();
+        }
+        clauseOffsets[clauseCount] = literals.length;
+        forEach(chunks.length, k -> {
+            Chunk chunk = chunks[k];
+            int base = literalOffsets[k];
+            for (int i = 0; i<chunk.literals.size(); i++) {
+                literals[base + i] = chunk.literals.get(i);
+            }
+            for (int c = chunk.begin; c<chunk.end; c++) {
+                clauseOffsets[c] = base + chunk.clauseBegins.get(c - chunk.begin);
+                heads[c] = chunk.heads.get(c - chunk.begin);
+                counters[c] = chunk.counters.get(c - chunk.begin);
+            }
+            for (int i = 0; i<chunk.initialClauses.size(); i++) {
+                initialClauses[initialOffsets[k] + i] = chunk.initialClauses.get(i);
+            }
+        });
+
+        return new CompiledKB(atoms, LTURGraph.of(IntArray.heap(offsets), IntArray.heap(targets), IntArray.heap(edgeClauses)),
+                IntArray.heap(clauseOffsets), IntArray.heap(literals), IntArray.heap(heads), IntArray.heap(counters),
+                initialClauses);
+    }
+
+    /**
+     * Sorts the edges by clause: each clause labels at most one outgoing edge of a node
+     */
+    private static void sortByClause(int[] targets, int[] edgeClauses, int begin, int end) {
+        if (end - begin < 2) return;
+        long[] edges = new long[end - begin];
+        for (int e = begin; e<end; e++) {
+            edges[e - begin] = ((long) edgeClauses[e] << 32) | (targets[e] & 0xFFFFFFFFL);
+        }
+        Arrays.sort(edges);
+        for (int e = begin; e<end; e++) {
+            edgeClauses[e] = (int) (edges[e - begin] >>> 32);
+            targets[e] = (int) edges[e - begin];
+        }
+    }
+
+    /**
+     * Runs the task for each integer between 0 and n, splitting the range among the pool workers
+     */
+    private void forEach(int n, IntConsumer task) {
+        pool.invoke(new Range(0, n, Math.max(1, n / (pool.getParallelism() * 8)), task));
+    }
+
+    private static class Range extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int begin;
+        private final int end;
+        private final int threshold;
+        private final IntConsumer task;
+
+        Range(int begin, int end, int threshold, IntConsumer task) {
+            this.begin = begin;
+            this.end = end;
+            this.threshold = threshold;
+            this.task = task;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - begin <= threshold) {
+                for (int i = begin; i<end; i++) task.accept(i);
+            } else {
+                int middle = (begin + end) >>> 1;
+                invokeAll(new Range(begin, middle, threshold, task), new Range(middle, end, threshold, task));
+            }
+        }
+    }
+
+    /**
+     * Clauses from begin to end
+     */
+    private class Chunk {
+        private final int begin;
+        private final int end;
+        private AtomTable atoms = new AtomTable();
+        private int[] globalIds;
+        private final IntList clauseBegins = new IntList();
+        private final IntList literals = new IntList();
+        private final IntList heads = new IntList();
+        private final IntList counters = new IntList();
+        private final IntList initialClauses = new IntList();
+        private final IntList sources = new IntList();
+        private final IntList targets = new IntList();
+        private final IntList edgeClauses = new IntList();
+
+        Chunk(int begin, int end) {
+            this.begin = begin;
+            this.end = end;
+        }
+
+        /**
+         * Converts the clauses into literals of the chunk table
+         */
+        void intern() {
+            for (int c = begin; c<end; c++) {
+                clauseBegins.add(literals.size());
+                for (int l : clauses.get(c).asGraphClause().intern(atoms).getLiterals()) {
+                    literals.add(l);
+                }
+            }
+        }
+
+        /**
+         * Translates the literals into global ones, and emits the edges
+         */
+        void compile(AtomicIntegerArray degrees) {
+            int[] clause = new int[16];
+            for (int c = begin; c<end; c++) {
+                int from = clauseBegins.get(c - begin);
+                int to = c + 1 < end ? clauseBegins.get(c + 1 - begin) : literals.size();
+                if (to - from > clause.length) clause = new int[Math.max(clause.length * 2, to - from)];
+                int head = AtomTable.NONE;
+                int v = 0;
+                for (int i = from; i<to; i++) {
+                    int l = literals.get(i);
+                    l = AtomTable.literal(globalIds[AtomTable.atomOf(l)], AtomTable.isNegated(l));
+                    literals.set(i, l);
+                    clause[i - from] = l;
+                    if (AtomTable.isNegated(l)) v++;
+                    else head = AtomTable.atomOf(l);
+                }
+                heads.add(head);
+                counters.add(v);
+                if (v == 0) initialClauses.add(c);
+                LTURGraph.putClause((x, y, h) -> {
+                    sources.add(x);
+                    targets.add(y);
+                    edgeClauses.add(h);
+                    degrees.incrementAndGet(x);
+                }, c, clause, 0, to - from);
+            }
+            globalIds = null;
+        }
+
+        /**
+         * Moves the edges of the chunk into the adjacency arrays
+         */
+        void fill(AtomicIntegerArray next, int[] allTargets, int[] allClauses) {
+            for (int i = 0; i<sources.size(); i++) {
+                int e = next.getAndIncrement(sources.get(i));
+                allTargets[e] = targets.get(i);
+                allClauses[e] = edgeClauses.get(i);
+            }
+            sources.clear();
+            targets.clear();
+            edgeClauses.clear();
+        }
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Simplification.java
+ * This file is part of ltur
+ *
+ * Copyright (C) 2018 giacomo
+ *
+ * ltur is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * ltur is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ltur. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package it.giacomobergami.ltur.structure;
+
+import it.giacomobergami.ltur.structure.atoms.AtomTable;
+
+/**
+ * Result of {@link CompiledKB#simplify()}: the simplified knowledge base, and the report of the clauses removed from
+ * the original one. The clause identifiers of the report are the ones of the original KB, unless stated otherwise.
+ */
+public class Simplification {
+
+    /**
+     * Why a clause was removed
+     */
+    public enum Reason {
+        /**
+         * The clause contains both an atom and its negation, e.g. a &#8743; b &#8658; a
+         */
+        TAUTOLOGY,
+
+        /**
+         * A previous clause has the same literals
+         */
+        DUPLICATE,
+
+        /**
+         * A smaller clause has a subset of its literals
+         */
+        SUBSUMED
+    }
+
+    private final CompiledKB kb;
+
+    /**
+     * Original identifier of each clause of the simplified KB
+     */
+    private final int[] kept;
+    private final Reason[] reasons;
+    private final int[] causes;
+
+    Simplification(CompiledKB kb, int[] kept, Reason[] reasons, int[] causes) {
+        this.kb = kb;
+        this.kept = kept;
+        this.reasons = reasons;
+        this.causes = causes;
+    }
+
+    /**
+     * Returns the simplified knowledge base
+     * @return
+     */
+    public CompiledKB kb() {
+        return kb;
+    }
+
+    /**
+     * Maps a clause of the simplified KB to the original one
+     * @param clause    Clause identifier within the simplified KB
+     * @return          Clause identifier within the original KB
+     */
+    public int originalClause(int clause) {
+        return kept[clause];
+    }
+
+    /**
+     * Returns why the clause was removed
+     * @param clause    Clause identifier
+     * @return          The reason, or null if the clause was kept
+     */
+    public Reason reason(int clause) {
+        return reasons[clause];
+    }
+
+    /**
+     * Returns the clause that made the clause redundant
+     * @param clause    Clause identifier
+     * @return          The kept clause having the same literals, or subsuming it. {@link AtomTable#NONE} if the clause
+     *                  was kept or is a tautology
+     */
+    public int cause(int clause) {
+        return causes[clause];
+    }
+
+    /**
+     * Returns the clauses removed for the given reason
+     * @param reason    Reason of the removal
+     * @return          The clause identifiers, in increasing order
+     */
+    public int[] removed(Reason reason) {
+        IntList removed = new IntList();
+        for (int c = 0; c<reasons.length; c++) {
+            if (reasons[c] == reason) removed.add(c);
+        }
+        return removed.toArray();
+    }
+
+    /**
+     * Number of the clauses removed for the given reason
+     * @param reason    Reason of the removal
+     * @return
+     */
+    public int removedCount(Reason reason) {
+        int count = 0;
+        for (Reason r : reasons) {
+            if (r == reason) count++;
+        }
+        return count;
+    }
+
+    /**
+     * Number of the removed clauses
+     * @return
+     */
+    public int removedCount() {
+        return reasons.length - kept.length;
+    }
+
+    @Override
+    public String toString() {
+        return "Simplification{" +
+                "clauses=" + reasons.length +
+                ", kept=" + kept.length +
+                ", tautologies=" + removedCount(Reason.TAUTOLOGY) +
+                ", duplicates=" + removedCount(Reason.DUPLICATE) +
+                ", subsumed=" + removedCount(Reason.SUBSUMED) +
+                '}';
+    }
+}
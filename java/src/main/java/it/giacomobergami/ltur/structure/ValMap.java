@@ -19,72 +19,203 @@
  */
 
 package it.giacomobergami.ltur.structure;
+import it.giacomobergami.ltur.structure.atoms.AtomTable;
 
-import it.giacomobergami.ltur.structure.atoms.Atom;
-import it.giacomobergami.ltur.structure.clauses.GraphClause;
+import java.util.Arrays;
 
-import java.util.ArrayList;
-import java.util.HashMap;
+/**
+ * Assignment of the atoms, indexed by their {@link AtomTable} identifier: 1 stands for true, 0 for false.
+ *
+ * Each atom takes two bits (unknown, false or true), and the assigned atoms are also listed in assignment order, so
+ * that clearing or copying the assignment costs as much as the number of the assigned atoms.
+ */
+public class ValMap {
+
+    /**
+     * Value of the atoms that were not assigned
+     */
+    public static final int UNKNOWN = -1;
+
+    private static final int BITS = 2;
+    private static final int PER_WORD = Long.SIZE / BITS;
+
+    /**
+     * Value + 1 of each atom, two bits each
+     */
+    private long[] words;
 
-public class ValMap extends HashMap<Atom, Integer> {
+    /**
+     * Assigned atoms
+     */
+    private final IntList touched;
+
+    public ValMap() {
+        words = new long[1];
+        touched = new IntList();
+    }
+
+    public ValMap(ValMap map) {
+        words = map.words.clone();
+        touched = new IntList(map.touched);
+    }
 
-    @Override
-    public boolean containsKey(Object a) {
-        if (! (a instanceof  Atom)) return false;
-        return super.containsKey(((Atom)a).rawAtom());
+    /**
+     * Returns the value of the atom
+     * @param atom  Atom identifier
+     * @return      1, 0, or {@link #UNKNOWN}
+     */
+    public int get(int atom) {
+        int w = atom / PER_WORD;
+        if (w >= words.length) return UNKNOWN;
+        return (int)((words[w] >>> shift(atom)) & 3) - 1;
     }
 
-    @Override
-    public Integer put(Atom key, Integer value) {
-        if (containsKey(key) && !get(key).equals(value))
+    public boolean isAssigned(int atom) {
+        return get(atom) != UNKNOWN;
+    }
+
+    /**
+     * Assigns the atom
+     * @param atom      Atom identifier
+     * @param value     Either 1 or 0
+     * @throws RuntimeException     If the atom was already assigned to a different value
+     */
+    public void put(int atom, int value) {
+        int old = get(atom);
+        if (old == value) return;
+        if (old != UNKNOWN)
             throw new RuntimeException("Unexpected error: overwriting map values");
-        return super.put(key.rawAtom(), value);
+        int w = atom / PER_WORD;
+        if (w >= words.length) {
+            words = Arrays.copyOf(words, Math.max(words.length * 2, w + 1));
+        }
+        words[w] |= (long)(value + 1) << shift(atom);
+        touched.add(atom);
+    }
+
+    /**
+     * Forgets the value of the atom. Removing the last assigned atom takes constant time
+     * @param atom  Atom identifier
+     */
+    public void remove(int atom) {
+        if (get(atom) == UNKNOWN) return;
+        words[atom / PER_WORD] &= ~(3L << shift(atom));
+        int i = touched.size() - 1;
+        while (touched.get(i) != atom) i--;
+        touched.set(i, touched.get(touched.size() - 1));
+        touched.pop();
+    }
+
+    /**
+     * Number of the assigned atoms
+     * @return
+     */
+    public int size() {
+        return touched.size();
     }
 
-    @Override
-    public Integer remove(Object a) {
-        if (! (a instanceof Atom)) return null;
-        return super.remove(((Atom)a).rawAtom());
+    public boolean isEmpty() {
+        return touched.isEmpty();
     }
 
-    public GraphClause updateWithUnsatisfaction(GraphClause gc) {
-        ArrayList<Atom> gcaUpdated = new ArrayList<>(gc.getVariables());
-        for (Entry<Atom, Integer> x : entrySet()) {
-            if (x.getValue() == 1) {
-                gcaUpdated.remove(x.getKey().negate());
-            }
+    /**
+     * Returns the i-th assigned atom
+     * @param i     Position, between 0 and {@link #size()}
+     * @return      Atom identifier
+     */
+    public int atom(int i) {
+        return touched.get(i);
+    }
+
+    /**
+     * Bytes taken in the java heap
+     * @return
+     */
+    public long heapBytes() {
+        return Footprint.object(0, 2) + Footprint.array(words.length, 8) + touched.heapBytes();
+    }
+
+    /**
+     * Forgets all the values
+     */
+    public void clear() {
+        for (int i = 0; i<touched.size(); i++) {
+            words[touched.get(i) / PER_WORD] = 0;
         }
-        if (gcaUpdated.size() == 1) {
-            Atom last = gcaUpdated.get(0);
-            if (last.isNegated()) {
-                put(last.rawAtom(), 1);
-            } else {
-                put(last, 0);
-            }
-            return null;
-        } else {
-            return gc.createUpdatedForLTUREvaluation(gcaUpdated);
+        touched.clear();
+    }
+
+    /**
+     * Replaces the current assignment with the given one
+     * @param map   Assignment to be copied
+     */
+    public void copyFrom(ValMap map) {
+        clear();
+        for (int i = 0; i<map.size(); i++) {
+            int atom = map.atom(i);
+            put(atom, map.get(atom));
         }
     }
 
-    public GraphClause updateWithSatisfaction(GraphClause gc) {
-        ArrayList<Atom> gcaUpdated = new ArrayList<>(gc.getVariables());
-        for (Entry<Atom, Integer> x : entrySet()) {
-            if (x.getValue() == 1) {
-                gcaUpdated.remove(x.getKey().negate());
-            }
+    /**
+     * Infers the assignment of the unsatisfied clause when only one of its literals is left
+     * @param literals      Array containing the literals of the clause
+     * @param begin         Position of the first literal of the clause
+     * @param end           Position following the last literal of the clause
+     * @return              Whether an atom was assigned
+     */
+    public boolean updateWithUnsatisfaction(IntArray literals, int begin, int end) {
+        return update(literals, begin, end, 1, 0);
+    }
+
+    /**
+     * Infers the assignment of the satisfied clause when only one of its literals is left
+     * @param literals      Array containing the literals of the clause
+     * @param begin         Position of the first literal of the clause
+     * @param end           Position following the last literal of the clause
+     * @return              Whether an atom was assigned
+     */
+    public boolean updateWithSatisfaction(IntArray literals, int begin, int end) {
+        return update(literals, begin, end, 0, 1);
+    }
+
+    /**
+     * Removes from the clause the negated literals whose atoms are true. If only one literal is left, it is assigned
+     * @param negatedValue      Value assigned to the atom if the last literal is negated
+     * @param positiveValue     Value assigned to the atom if the last literal is not negated
+     * @return                  Whether the last literal was assigned
+     */
+    private boolean update(IntArray literals, int begin, int end, int negatedValue, int positiveValue) {
+        int last = 0;
+        int n = 0;
+        for (int i = begin; i<end && n < 2; i++) {
+            int l = literals.get(i);
+            // Each true atom removes only one occurrence of its negation
+            if (AtomTable.isNegated(l) && isTrue(AtomTable.atomOf(l)) && !occursBefore(literals, begin, i))
+                continue;
+            last = l;
+            n++;
+        }
+        if (n == 1) {
+            put(AtomTable.atomOf(last), AtomTable.isNegated(last) ? negatedValue : positiveValue);
+            return true;
         }
-        if (gcaUpdated.size() == 1) {
-            Atom last = gcaUpdated.get(0);
-            if (last.isNegated()) {
-                put(last.rawAtom(), 0);
-            } else {
-                put(last, 1);
-            }
-            return null;
-        } else {
-            return gc.createUpdatedForLTUREvaluation(gcaUpdated);
+        return false;
+    }
+
+    private boolean isTrue(int atom) {
+        return get(atom) == 1;
+    }
+
+    private static int shift(int atom) {
+        return (atom % PER_WORD) * BITS;
+    }
+
+    private static boolean occursBefore(IntArray literals, int begin, int i) {
+        for (int j = begin; j<i; j++) {
+            if (literals.get(j) == literals.get(i)) return true;
         }
+        return false;
     }
 
 }
@@ -43,7 +43,7 @@ public class Atom implements IAtom {
     public Atom(String name) {
         this(name, false);
     }
-    private Atom(String name, boolean value) {
+    Atom(String name, boolean value) {
         this.name = name;
         this.negated = value;
     }
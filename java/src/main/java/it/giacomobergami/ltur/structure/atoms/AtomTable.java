@@ -0,0 +1,319 @@
+/*
+ * AtomTable.java
+ * This file is part of ltur
+ *
+ * Copyright (C) 2018 giacomo
+ *
+ * ltur is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * ltur is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ltur. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package it.giacomobergami.ltur.structure.atoms;
+
+import it.giacomobergami.ltur.structure.Footprint;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Symbol table assigning to each atom name a dense integer identifier. The identifiers are assigned once, so that
+ * the inference engine can refer to the atoms by integers instead of hashing their names at each step.
+ *
+ * Literals are encoded as 2*id + negated: negating a literal or retrieving its (raw) atom are bit operations.
+ * The identifiers {@link #TOP} and {@link #BOT} are reserved for the universal truth and falsehood.
+ *
+ * A table can extend another one, which is never modified: the names that are not in the extended table receive the
+ * identifiers following the ones of the extended table.
+ *
+ * A snapshot is a read-only table with the identifiers assigned so far, sharing the names with the table it was taken
+ * from: such names are only copied when the table is going to remove them.
+ */
+public class AtomTable {
+
+    /**
+     * Identifier associated to the universal truth
+     */
+    public static final int TOP = 0;
+
+    /**
+     * Identifier associated to the falsehood
+     */
+    public static final int BOT = 1;
+
+    /**
+     * Value returned when no atom is available (e.g., the positive atom of a clause without positive atoms)
+     */
+    public static final int NONE = -1;
+
+    /**
+     * Table providing the first identifiers, or null
+     */
+    private final AtomTable parent;
+
+    /**
+     * First identifier assigned by this table
+     */
+    private final int base;
+
+    /**
+     * Maps each atom name to its identifier: built on demand by the snapshots
+     */
+    private volatile HashMap<String, Integer> ids;
+
+    /**
+     * Maps each identifier (minus base) to its atom name
+     */
+    private String[] names;
+
+    /**
+     * Number of the identifiers assigned so far, including the reserved and the extended ones
+     */
+    private int size;
+
+    /**
+     * Number of the identifiers whose names are shared with the snapshots, and whether this table is a snapshot
+     */
+    private int shared;
+    private final boolean readOnly;
+
+    public AtomTable() {
+        parent = null;
+        base = 0;
+        ids = new HashMap<>();
+        names = new String[16];
+        names[TOP] = Top.instance().toString();
+        names[BOT] = Bot.instance().toString();
+        size = 2;
+        readOnly = false;
+    }
+
+    /**
+     * Creates a table assigning the given identifiers
+     * @param names     Name of each identifier: the ones of {@link #TOP} and {@link #BOT} are ignored
+     * @return          The table
+     */
+    public static AtomTable of(String[] names) {
+        AtomTable table = new AtomTable(null, 0, new HashMap<>((int)(names.length / 0.75f) + 1),
+                Arrays.copyOf(names, Math.max(names.length, 16)), Math.max(names.length, 2), false);
+        table.names[TOP] = Top.instance().toString();
+        table.names[BOT] = Bot.instance().toString();
+        for (int i = 2; i<names.length; i++) {
+            table.ids.put(names[i], i);
+        }
+        return table;
+    }
+
+    /**
+     * Creates a table extending the given one
+     * @param parent    Table that is not going to be modified
+     */
+    public AtomTable(AtomTable parent) {
+        this.parent = parent;
+        base = parent.size();
+        ids = new HashMap<>();
+        names = new String[16];
+        size = base;
+        readOnly = false;
+    }
+
+    private AtomTable(AtomTable parent, int base, HashMap<String, Integer> ids, String[] names, int size,
+                      boolean readOnly) {
+        this.parent = parent;
+        this.base = base;
+        this.ids = ids;
+        this.names = names;
+        this.size = size;
+        this.readOnly = readOnly;
+    }
+
+    /**
+     * Returns a copy of this table, extending the same table
+     * @return
+     */
+    public AtomTable copy() {
+        return new AtomTable(parent, base, new HashMap<>(ids()), names.clone(), size, false);
+    }
+
+    /**
+     * Returns a read-only table with the identifiers assigned so far. The first n ones share their names with this
+     * table, while the following ones are copied: the time is linear in the identifiers following n
+     * @param n     Number of the identifiers to be shared, which this table is expected to keep
+     * @return      The snapshot
+     */
+    public AtomTable snapshot(int n) {
+        n = Math.max(base, Math.min(n, size));
+        shared = Math.max(shared, n);
+        AtomTable prefix = n == base ? parent : new AtomTable(parent, base, null, names, n, true);
+        return new AtomTable(prefix, n, null, Arrays.copyOfRange(names, n - base, size - base), size, true);
+    }
+
+    /**
+     * Returns the identifier associated to the atom name, creating a new one if the name was never seen before
+     * @param name  Atom name
+     * @return      Dense identifier
+     */
+    public int intern(String name) {
+        if (readOnly)
+            throw new RuntimeException("Unexpected error: interning " + name + " into a snapshot");
+        int id = id(name);
+        if (id != NONE) return id;
+        if (size - base == names.length) {
+            names = Arrays.copyOf(names, names.length * 2);
+        }
+        names[size - base] = name;
+        ids.put(name, size);
+        return size++;
+    }
+
+    /**
+     * Returns the identifier associated to the atom name
+     * @param name  Atom name
+     * @return      The identifier, or {@link #NONE} if the name was never interned
+     */
+    public int id(String name) {
+        if (parent != null) {
+            int id = parent.id(name);
+            if (id != NONE) return id;
+        }
+        Integer id = ids().get(name);
+        return id == null ? NONE : id;
+    }
+
+    private HashMap<String, Integer> ids() {
+        HashMap<String, Integer> ids = this.ids;
+        return ids != null ? ids : indexNames();
+    }
+
+    private synchronized HashMap<String, Integer> indexNames() {
+        if (ids == null) {
+            HashMap<String, Integer> ids = new HashMap<>();
+            for (int i = 0; i<size - base; i++) {
+                ids.put(names[i], base + i);
+            }
+            this.ids = ids;
+        }
+        return ids;
+    }
+
+    /**
+     * Encodes the atom as a literal, interning its name if required
+     * @param a     Atom, either negated or not
+     * @return      The literal encoding
+     */
+    public int literal(Atom a) {
+        return literal(intern(a.name), a.negated);
+    }
+
+    /**
+     * Returns the name associated to the identifier
+     * @param id    Atom identifier
+     * @return
+     */
+    public String name(int id) {
+        return id < base ? parent.name(id) : names[id - base];
+    }
+
+    /**
+     * Returns the raw (non negated) atom associated to the identifier
+     * @param id    Atom identifier
+     * @return
+     */
+    public Atom atom(int id) {
+        return new Atom(name(id));
+    }
+
+    /**
+     * Returns the atom represented by the literal
+     * @param literal   Literal encoding
+     * @return
+     */
+    public Atom literalAtom(int literal) {
+        return new Atom(name(atomOf(literal)), isNegated(literal));
+    }
+
+    /**
+     * Number of the identifiers assigned so far, including {@link #TOP} and {@link #BOT}
+     * @return
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Bytes taken in the java heap by the names assigned by this table, excluding the extended one
+     * @return
+     */
+    public long heapBytes() {
+        long bytes = Footprint.object(8, 3) + Footprint.referenceArray(names.length)
+                + (ids == null ? 0 : Footprint.hashMap(ids.size(), Footprint.object(4, 0)));
+        for (int i = 0; i<size - base; i++) {
+            bytes += Footprint.string(names[i]);
+        }
+        return bytes;
+    }
+
+    /**
+     * Removes the identifiers assigned by this table, preserving the reserved and the extended ones
+     */
+    public void clear() {
+        int first = Math.max(base, 2);
+        unshare(first);
+        ids.clear();
+        Arrays.fill(names, first - base, size - base, null);
+        size = first;
+    }
+
+    /**
+     * Removes the identifiers following the first n ones, preserving the reserved and the extended ones. The removed
+     * names are going to receive new identifiers if interned again
+     * @param n     Number of the identifiers to be preserved
+     */
+    public void truncate(int n) {
+        int first = Math.max(n, Math.max(base, 2));
+        unshare(first);
+        for (int i = first; i<size; i++) {
+            ids.remove(names[i - base]);
+            names[i - base] = null;
+        }
+        size = Math.min(size, first);
+    }
+
+    /**
+     * Copies the names before removing the ones following the first n identifiers, if shared with a snapshot
+     */
+    private void unshare(int n) {
+        if (readOnly)
+            throw new RuntimeException("Unexpected error: removing the names of a snapshot");
+        if (n < shared) {
+            names = names.clone();
+            shared = 0;
+        }
+    }
+
+    public static int literal(int id, boolean negated) {
+        return (id << 1) | (negated ? 1 : 0);
+    }
+
+    public static int atomOf(int literal) {
+        return literal >>> 1;
+    }
+
+    public static boolean isNegated(int literal) {
+        return (literal & 1) != 0;
+    }
+
+    public static int negate(int literal) {
+        return literal ^ 1;
+    }
+
+}
@@ -21,6 +21,9 @@
 package it.giacomobergami.ltur.structure.clauses;
 
 import it.giacomobergami.ltur.structure.atoms.Atom;
+import it.giacomobergami.ltur.structure.atoms.AtomTable;
+import it.giacomobergami.ltur.structure.Footprint;
+import it.giacomobergami.ltur.structure.IntArray;
 import it.giacomobergami.ltur.structure.ValMap;
 
 import java.util.*;
@@ -43,6 +46,18 @@ public class GraphClause {
      * Handler containing the only positive atom within the clause
      */
     private Atom positive;
+    /**
+     * Literal encoding of the variables, as provided by the {@link AtomTable} used to intern the clause
+     */
+    private int[] literals;
+    /**
+     * The same literals, as read by the {@link ValMap} updates
+     */
+    private IntArray literalArray;
+    /**
+     * Identifier of the positive atom, or {@link AtomTable#NONE}
+     */
+    private int positiveId;
     
     GraphClause(ArrayList<Atom> variables, HornClause logic, Atom positive) {
         this.variables = variables;
@@ -82,6 +97,61 @@ public class GraphClause {
         return count;
     }
 
+    /**
+     * Encodes the variables as literals of the given table, interning the atoms that were never seen before
+     * @param table     Table providing the atom identifiers
+     * @return          The current clause
+     */
+    public GraphClause intern(AtomTable table) {
+        int n = variables.size();
+        literals = new int[n];
+        positiveId = AtomTable.NONE;
+        for (int i = 0; i<n; i++) {
+            literals[i] = table.literal(variables.get(i));
+            if (!AtomTable.isNegated(literals[i]))
+                positiveId = AtomTable.atomOf(literals[i]);
+        }
+        literalArray = IntArray.heap(literals);
+        return this;
+    }
+
+    /**
+     * Returns the literal encoding of the variables. The clause must have been interned first
+     * @return
+     */
+    public int[] getLiterals() {
+        return literals;
+    }
+
+    /**
+     * Returns the literal encoding of the variables, wrapping the same array as {@link #getLiterals()}. The clause must
+     * have been interned first
+     * @return
+     */
+    public IntArray literalArray() {
+        return literalArray;
+    }
+
+    /**
+     * Returns the identifier of the positive variable if it exists, {@link AtomTable#NONE} otherwise. The clause
+     * must have been interned first
+     * @return
+     */
+    public int positiveAtom() {
+        return positiveId;
+    }
+
+    /**
+     * Bytes taken in the java heap by the clause, its literals and its variables. The atom names and the original
+     * Horn clause are not included, as they are shared with the clause provided by the user
+     * @return
+     */
+    public long heapBytes() {
+        long bytes = Footprint.object(4, 5) + Footprint.object(8, 1) + Footprint.referenceArray(variables.size())
+                + variables.size() * Footprint.object(1, 1);
+        return literals == null ? bytes : bytes + Footprint.array(literals.length, 4) + Footprint.object(0, 1);
+    }
+
     /**
      * Associates the Horn clause to the current element
      * @param hornClause
@@ -136,9 +206,8 @@ public class GraphClause {
      * @param map
      */
     public void initializeMap(ValMap map) {
-        int n = variables.size();
-        for (int i = 0; i<n; i++) {
-            map.put(variables.get(0).rawAtom(), 0);
+        for (int l : literals) {
+            map.put(AtomTable.atomOf(l), 0);
         }
     }
 
@@ -182,4 +251,5 @@ public class GraphClause {
     public GraphClause createUpdatedForLTUREvaluation(ArrayList<Atom> a) {
         return new GraphClause(a, logic, positive);
     }
+
 }
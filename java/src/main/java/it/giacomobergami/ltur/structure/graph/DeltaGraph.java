@@ -0,0 +1,99 @@
+/*
+ * DeltaGraph.java
+ * This file is part of ltur
+ *
+ * Copyright (C) 2018 giacomo
+ *
+ * ltur is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * ltur is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ltur. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package it.giacomobergami.ltur.structure.graph;
+
+import it.giacomobergami.ltur.structure.Footprint;
+import it.giacomobergami.ltur.structure.IntList;
+
+import java.util.HashMap;
+import java.util.Iterator;
+
+/**
+ * Mutable implication graph for the (few) clauses that are added on top of an immutable {@link LTURGraph}. Each
+ * adjacency list alternates the target node and the clause labelling the edge.
+ */
+public class DeltaGraph implements LTURGraph.EdgeSink {
+
+    private final HashMap<Integer, IntList> graph;
+
+    public DeltaGraph() {
+        graph = new HashMap<>();
+    }
+
+    public DeltaGraph(DeltaGraph other) {
+        this();
+        other.graph.forEach((x, adj) -> graph.put(x, new IntList(adj)));
+    }
+
+    @Override
+    public void putEdgeValue(int source, int destination, int clause) {
+        IntList adj = graph.computeIfAbsent(source, x -> new IntList(4));
+        adj.add(destination);
+        adj.add(clause);
+    }
+
+    /**
+     * Returns the outgoing edges of the node
+     * @param source    Atom identifier
+     * @return          The list alternating targets and clauses, or null if the node has no outgoing edges
+     */
+    public IntList adjacencyList(int source) {
+        return graph.get(source);
+    }
+
+    /**
+     * Removes the edges labelled by the clauses whose identifier is greater or equal than the given one. As the
+     * clauses are added by increasing identifier, these are the last edges of each adjacency list
+     * @param firstClause   First clause to be removed
+     */
+    public void removeClauses(int firstClause) {
+        Iterator<IntList> it = graph.values().iterator();
+        while (it.hasNext()) {
+            IntList adj = it.next();
+            int n = adj.size();
+            while (n > 0 && adj.get(n - 1) >= firstClause) {
+                n -= 2;
+            }
+            if (n == 0) it.remove();
+            else adj.truncate(n);
+        }
+    }
+
+    /**
+     * Bytes taken in the java heap
+     * @return
+     */
+    public long heapBytes() {
+        long bytes = Footprint.object(0, 1) + Footprint.hashMap(graph.size(), Footprint.object(4, 0));
+        for (IntList adj : graph.values()) {
+            bytes += adj.heapBytes();
+        }
+        return bytes;
+    }
+
+    public boolean isEmpty() {
+        return graph.isEmpty();
+    }
+
+    public void clear() {
+        graph.clear();
+    }
+}
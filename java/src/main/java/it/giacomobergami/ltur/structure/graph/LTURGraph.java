@@ -20,17 +20,257 @@
 
 package it.giacomobergami.ltur.structure.graph;
 
-import it.giacomobergami.ltur.structure.atoms.IAtom;
-import it.giacomobergami.ltur.structure.clauses.GraphClause;
+import it.giacomobergami.ltur.structure.Footprint;
+import it.giacomobergami.ltur.structure.IntArray;
+import it.giacomobergami.ltur.structure.IntList;
+import it.giacomobergami.ltur.structure.atoms.AtomTable;
 
+/**
+ * Implication graph, whose nodes are the {@link it.giacomobergami.ltur.structure.atoms.AtomTable} identifiers and
+ * whose edges are labelled by the identifiers of the clauses that generated them.
+ *
+ * The graph is immutable and stored in compressed sparse row form: the outgoing edges of node x are the positions
+ * from {@link #begin(int)} (included) to {@link #end(int)} (excluded) of the target and clause arrays.
+ */
 public class LTURGraph {
-    public DirectedGraph<IAtom, GraphClause> dg;
 
-    public LTURGraph() {
-        dg = new DirectedGraph<>();
+    /**
+     * Graph with no nodes and no edges
+     */
+    public static final LTURGraph EMPTY = new LTURGraph(IntArray.heap(new int[1]), IntArray.EMPTY, IntArray.EMPTY);
+
+    /**
+     * The outgoing edges of node x are stored from offsets[x] to offsets[x+1]
+     */
+    private final IntArray offsets;
+
+    /**
+     * Target node of each edge
+     */
+    private final IntArray targets;
+
+    /**
+     * Clause labelling each edge
+     */
+    private final IntArray clauses;
+
+    LTURGraph(IntArray offsets, IntArray targets, IntArray clauses) {
+        this.offsets = offsets;
+        this.targets = targets;
+        this.clauses = clauses;
+    }
+
+    /**
+     * Wraps the adjacency arrays
+     * @param offsets   The outgoing edges of node x are stored from offsets[x] to offsets[x+1]
+     * @param targets   Target node of each edge
+     * @param clauses   Clause labelling each edge
+     * @return          The graph
+     */
+    public static LTURGraph of(IntArray offsets, IntArray targets, IntArray clauses) {
+        return new LTURGraph(offsets, targets, clauses);
+    }
+
+    /**
+     * Returns the same graph, storing its adjacency arrays off-heap
+     * @return
+     */
+    public LTURGraph offHeap() {
+        if (offsets.isOffHeap() && targets.isOffHeap() && clauses.isOffHeap()) return this;
+        return new LTURGraph(IntArray.offHeap(offsets), IntArray.offHeap(targets), IntArray.offHeap(clauses));
+    }
+
+    /**
+     * Bytes taken in the java heap
+     * @return
+     */
+    public long heapBytes() {
+        return Footprint.object(0, 3) + offsets.heapBytes() + targets.heapBytes() + clauses.heapBytes();
+    }
+
+    /**
+     * Bytes taken outside the java heap, when the graph is stored off-heap
+     * @return
+     */
+    public long offHeapBytes() {
+        return offsets.offHeapBytes() + targets.offHeapBytes() + clauses.offHeapBytes();
+    }
+
+    /**
+     * Number of the nodes of the graph
+     * @return
+     */
+    public int nodes() {
+        return offsets.length() - 1;
+    }
+
+    /**
+     * Number of the edges of the graph
+     * @return
+     */
+    public int edges() {
+        return targets.length();
+    }
+
+    /**
+     * Position of the first outgoing edge of the node. Nodes that are not in the graph have no outgoing edges.
+     * @param node  Atom identifier
+     * @return
+     */
+    public int begin(int node) {
+        return node < offsets.length() - 1 ? offsets.get(node) : 0;
     }
 
-    public void clear() {
-        dg.clear();
+    /**
+     * Position following the last outgoing edge of the node
+     * @param node  Atom identifier
+     * @return
+     */
+    public int end(int node) {
+        return node < offsets.length() - 1 ? offsets.get(node + 1) : 0;
+    }
+
+    /**
+     * Target node of the edge
+     * @param edge  Edge position
+     * @return
+     */
+    public int target(int edge) {
+        return targets.get(edge);
+    }
+
+    /**
+     * Clause labelling the edge
+     * @param edge  Edge position
+     * @return
+     */
+    public int clause(int edge) {
+        return clauses.get(edge);
+    }
+
+    /**
+     * Receives the edges generated by a clause
+     */
+    public interface EdgeSink {
+        void putEdgeValue(int source, int destination, int clause);
+    }
+
+    /**
+     * Generates the edges of the clause: if the clause has no positive atom, all its atoms point to ⊥. If it
+     * only contains one atom, ⊤ points to it. Otherwise, each negated atom points to the positive one.
+     * Each atom provides one single edge, even if it appears more than once within the clause.
+     * @param sink          Graph receiving the edges
+     * @param clause        Clause identifier
+     * @param literals      Array containing the literals of the clause
+     * @param begin         Position of the first literal of the clause
+     * @param end           Position following the last literal of the clause
+     */
+    public static void putClause(EdgeSink sink, int clause, int[] literals, int begin, int end) {
+        int pos = AtomTable.NONE;
+        int distinct = 0;
+        for (int i = begin; i<end; i++) {
+            if (!AtomTable.isNegated(literals[i]))
+                pos = AtomTable.atomOf(literals[i]);
+            if (isFirstAtomOccurrence(literals, begin, i))
+                distinct++;
+        }
+        if (pos != AtomTable.NONE && distinct == 1) {
+            sink.putEdgeValue(AtomTable.TOP, pos, clause);
+            return;
+        }
+        for (int i = begin; i<end; i++) {
+            int l = literals[i];
+            if (pos == AtomTable.NONE) {
+                if (isFirstAtomOccurrence(literals, begin, i))
+                    sink.putEdgeValue(AtomTable.atomOf(l), AtomTable.BOT, clause);
+            } else if (AtomTable.isNegated(l) && isFirstOccurrence(literals, begin, i)) {
+                sink.putEdgeValue(AtomTable.atomOf(l), pos, clause);
+            }
+        }
+    }
+
+    private static boolean isFirstAtomOccurrence(int[] literals, int begin, int i) {
+        for (int j = begin; j<i; j++) {
+            if (AtomTable.atomOf(literals[j]) == AtomTable.atomOf(literals[i])) return false;
+        }
+        return true;
+    }
+
+    private static boolean isFirstOccurrence(int[] literals, int begin, int i) {
+        for (int j = begin; j<i; j++) {
+            if (literals[j] == literals[i]) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Collects the edges in any order, and then sorts them by source node while building the graph
+     */
+    public static class Builder implements EdgeSink {
+        private final boolean offHeap;
+        private IntArray.Builder sources;
+        private IntArray.Builder targets;
+        private IntArray.Builder clauses;
+
+        public Builder() {
+            this(false);
+        }
+
+        /**
+         * @param offHeap   Whether the edges and the built graph are stored off-heap
+         */
+        public Builder(boolean offHeap) {
+            this.offHeap = offHeap;
+            clear();
+        }
+
+        @Override
+        public void putEdgeValue(int source, int destination, int clause) {
+            sources.add(source);
+            targets.add(destination);
+            clauses.add(clause);
+        }
+
+        public void clear() {
+            sources = new IntArray.Builder(offHeap);
+            targets = new IntArray.Builder(offHeap);
+            clauses = new IntArray.Builder(offHeap);
+        }
+
+        /**
+         * Creates the graph, and clears the builder
+         * @param nodes     Number of the nodes, that is the number of the atom identifiers
+         * @return          The immutable graph
+         */
+        public LTURGraph build(int nodes) {
+            int size = sources.size();
+            IntArray.Builder offsets = new IntArray.Builder(offHeap);
+            offsets.extend(nodes + 1);
+            for (int i = 0; i<size; i++) {
+                int x = sources.get(i) + 1;
+                offsets.set(x, offsets.get(x) + 1);
+            }
+            for (int x = 0; x<nodes; x++) {
+                offsets.set(x + 1, offsets.get(x + 1) + offsets.get(x));
+            }
+            IntArray.Builder t = new IntArray.Builder(offHeap);
+            IntArray.Builder c = new IntArray.Builder(offHeap);
+            t.extend(size);
+            c.extend(size);
+            // offsets[x] is used as the next free position of x, and then becomes the first position of x+1
+            for (int i = 0; i<size; i++) {
+                int x = sources.get(i);
+                int pos = offsets.get(x);
+                offsets.set(x, pos + 1);
+                t.set(pos, targets.get(i));
+                c.set(pos, clauses.get(i));
+            }
+            for (int x = nodes; x>0; x--) {
+                offsets.set(x, offsets.get(x - 1));
+            }
+            offsets.set(0, 0);
+            clear();
+            return new LTURGraph(offsets.build(), t.build(), c.build());
+        }
     }
 }
@@ -0,0 +1,208 @@
+/*
+ * HornKBGenerator.java
+ * This file is part of ltur
+ *
+ * Copyright (C) 2018 giacomo
+ *
+ * ltur is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * ltur is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ltur. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package it.giacomobergami.ltur.workload;
+
+import it.giacomobergami.ltur.structure.CompiledKB;
+import it.giacomobergami.ltur.structure.clauses.HornClause;
+
+import java.util.Random;
+import java.util.function.Consumer;
+
+/**
+ * Generates synthetic Horn knowledge bases and queries, standing in for the real rule sets.
+ *
+ * The rules range over the atoms a0 ... a(atoms-1). In the {@link Satisfiability#SATISFIABLE} case, each
+ * negated-head clause also mentions a "free" atom, which is never the head of a rule nor a fact, so that no constraint
+ * can be violated. In the {@link Satisfiability#UNSATISFIABLE} case, the KB contains ¬a0 and each query contains a0.
+ * The clauses are streamed, so that KBs larger than the heap of their {@link HornClause} objects can be compiled.
+ */
+public class HornKBGenerator {
+
+    public enum Satisfiability {
+        SATISFIABLE, UNSATISFIABLE, RANDOM
+    }
+
+    public enum BodyLength {
+        /**
+         * Each length between the minimum and the maximum is equally likely
+         */
+        UNIFORM,
+        /**
+         * Starting from the minimum, each further body atom is added with probability 1/2, up to the maximum
+         */
+        GEOMETRIC
+    }
+
+    private int atoms = 1000;
+    private long clauses = 10000;
+    private int minBody = 1;
+    private int maxBody = 3;
+    private BodyLength bodyLength = BodyLength.UNIFORM;
+    private double negatedHeadRatio = 0.1;
+    private double factRatio = 0.01;
+    private Satisfiability satisfiability = Satisfiability.RANDOM;
+    private int queryFacts = 10;
+    private long seed = 42;
+
+    public HornKBGenerator setAtoms(int atoms) {
+        this.atoms = Math.max(atoms, 1);
+        return this;
+    }
+
+    public HornKBGenerator setClauses(long clauses) {
+        this.clauses = clauses;
+        return this;
+    }
+
+    public HornKBGenerator setBodyLength(BodyLength bodyLength, int minBody, int maxBody) {
+        if (minBody < 0 || maxBody < minBody)
+            throw new IllegalArgumentException("Invalid body length range: " + minBody + ".." + maxBody);
+        this.bodyLength = bodyLength;
+        this.minBody = minBody;
+        this.maxBody = maxBody;
+        return this;
+    }
+
+    /**
+     * @param negatedHeadRatio  Fraction of the clauses created via {@link HornClause#negatedHeadHornClause(String, String...)}
+     * @return
+     */
+    public HornKBGenerator setNegatedHeadRatio(double negatedHeadRatio) {
+        this.negatedHeadRatio = negatedHeadRatio;
+        return this;
+    }
+
+    /**
+     * @param factRatio     Fraction of the clauses that are facts
+     * @return
+     */
+    public HornKBGenerator setFactRatio(double factRatio) {
+        this.factRatio = factRatio;
+        return this;
+    }
+
+    public HornKBGenerator setSatisfiability(Satisfiability satisfiability) {
+        this.satisfiability = satisfiability;
+        return this;
+    }
+
+    /**
+     * @param queryFacts    Number of the facts of each query
+     * @return
+     */
+    public HornKBGenerator setQueryFacts(int queryFacts) {
+        this.queryFacts = queryFacts;
+        return this;
+    }
+
+    public HornKBGenerator setSeed(long seed) {
+        this.seed = seed;
+        return this;
+    }
+
+    public long getClauses() {
+        return clauses;
+    }
+
+    /**
+     * Generates the KB clauses. The same generator always provides the same clauses.
+     * @param sink      Consumer of the clauses
+     */
+    public void generate(Consumer<HornClause> sink) {
+        Random random = new Random(seed);
+        long n = clauses;
+        if (satisfiability == Satisfiability.UNSATISFIABLE && n > 0) {
+            sink.accept(HornClause.negatedFact(atom(0)));
+            n--;
+        }
+        for (long i = 0; i<n; i++) {
+            double p = random.nextDouble();
+            if (p < factRatio) {
+                sink.accept(HornClause.fact(atom(random.nextInt(atoms))));
+            } else if (p < factRatio + negatedHeadRatio) {
+                String[] body = body(random);
+                String head;
+                if (satisfiability == Satisfiability.SATISFIABLE) {
+                    head = freeAtom(random.nextInt(atoms));
+                } else {
+                    head = atom(random.nextInt(atoms));
+                }
+                sink.accept(HornClause.negatedHeadHornClause(head, body));
+            } else {
+                sink.accept(HornClause.classicHornClause(atom(random.nextInt(atoms)), body(random)));
+            }
+        }
+    }
+
+    /**
+     * Compiles the generated KB
+     * @return
+     */
+    public CompiledKB compile() {
+        return compile(false);
+    }
+
+    /**
+     * Compiles the generated KB
+     * @param offHeap   Whether the clauses and the graph are built off-heap
+     * @return
+     */
+    public CompiledKB compile(boolean offHeap) {
+        CompiledKB.Builder builder = new CompiledKB.Builder(offHeap);
+        generate(builder::add);
+        return builder.build();
+    }
+
+    /**
+     * Generates the facts of a query
+     * @param random    Source of the query atoms
+     * @return
+     */
+    public HornClause[] query(Random random) {
+        HornClause[] query = new HornClause[queryFacts];
+        for (int i = 0; i<queryFacts; i++) {
+            query[i] = HornClause.fact(atom(i == 0 && satisfiability == Satisfiability.UNSATISFIABLE ? 0 : random.nextInt(atoms)));
+        }
+        return query;
+    }
+
+    private String[] body(Random random) {
+        int length = minBody;
+        if (bodyLength == BodyLength.UNIFORM) {
+            length += random.nextInt(maxBody - minBody + 1);
+        } else {
+            while (length < maxBody && random.nextBoolean()) length++;
+        }
+        String[] body = new String[length];
+        for (int i = 0; i<length; i++) {
+            body[i] = atom(random.nextInt(atoms));
+        }
+        return body;
+    }
+
+    private static String atom(int i) {
+        return "a" + i;
+    }
+
+    private static String freeAtom(int i) {
+        return "f" + i;
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * ScaleTest.java
+ * This file is part of ltur
+ *
+ * Copyright (C) 2018 giacomo
+ *
+ * ltur is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * ltur is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ltur. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package it.giacomobergami.ltur.workload;
+
+import it.giacomobergami.ltur.LTUR;
+import it.giacomobergami.ltur.structure.CompiledKB;
+import it.giacomobergami.ltur.structure.LTURResult;
+import it.giacomobergami.ltur.structure.clauses.HornClause;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.HashMap;
+import java.util.Random;
+
+/**
+ * Soak test: compiles generated KBs of growing size and runs queries over each of them for a given time, reporting
+ * the compilation time, the query throughput and the peak heap usage. Queries failing with an exception are counted
+ * as errors. The peak heap usage is the largest one sampled every {@link HeapSampler#PERIOD_MILLIS} milliseconds, so
+ * that it might miss the shorter peaks. The size grows by the given factor until the
+ * maximum is reached or the heap is exhausted.
+ *
+ * Usage: ScaleTest [key=value]... where the keys are:
+ * <ul>
+ *     <li>from, to, factor: clause counts (default 1000, 100000000, 10)</li>
+ *     <li>atoms: atoms per clause (default 0.5)</li>
+ *     <li>body: body length range, e.g. 1..3; dist: uniform or geometric</li>
+ *     <li>negated, facts: ratio of the negated-head clauses and of the facts (default 0.1, 0.01)</li>
+ *     <li>sat: satisfiable, unsatisfiable or random (default satisfiable)</li>
+ *     <li>query: facts per query (default 10); seconds: querying time per size (default 10)</li>
+ *     <li>seed: random seed (default 42)</li>
+ *     <li>offheap: whether the compiled KB is built off-heap (default false)</li>
+ * </ul>
+ */
+public class ScaleTest {
+
+    public static void main(String[] args) {
+        HashMap<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            int i = arg.indexOf('=');
+            if (i < 0)
+                throw new IllegalArgumentException("Expected key=value, got: " + arg);
+            options.put(arg.substring(0, i), arg.substring(i + 1));
+        }
+        long from = Long.parseLong(options.getOrDefault("from", "1000"));
+        long to = Long.parseLong(options.getOrDefault("to", "100000000"));
+        long factor = Long.parseLong(options.getOrDefault("factor", "10"));
+        double atomsPerClause = Double.parseDouble(options.getOrDefault("atoms", "0.5"));
+        String[] body = options.getOrDefault("body", "1..3").split("\\.\\.");
+        long seconds = Long.parseLong(options.getOrDefault("seconds", "10"));
+        long seed = Long.parseLong(options.getOrDefault("seed", "42"));
+        boolean offHeap = Boolean.parseBoolean(options.getOrDefault("offheap", "false"));
+
+        HornKBGenerator generator = new HornKBGenerator()
+                .setBodyLength(HornKBGenerator.BodyLength.valueOf(options.getOrDefault("dist", "uniform").toUpperCase()),
+                        Integer.parseInt(body[0]), Integer.parseInt(body[body.length - 1]))
+                .setNegatedHeadRatio(Double.parseDouble(options.getOrDefault("negated", "0.1")))
+                .setFactRatio(Double.parseDouble(options.getOrDefault("facts", "0.01")))
+                .setSatisfiability(HornKBGenerator.Satisfiability.valueOf(options.getOrDefault("sat", "satisfiable").toUpperCase()))
+                .setQueryFacts(Integer.parseInt(options.getOrDefault("query", "10")))
+                .setSeed(seed);
+
+        System.out.println("clauses\tcompile_ms\tclauses_per_s\tqueries\tquery_avg_us\tqueries_per_s\tsatisfiable\terrors\tpeak_heap_mb");
+        for (long size = from; size <= to && size > 0; size *= factor) {
+            generator.setClauses(size).setAtoms((int)Math.min(Integer.MAX_VALUE / 2 - 1, Math.max(1, (long)(size * atomsPerClause))));
+            try {
+                run(generator, offHeap, seconds, new Random(seed));
+            } catch (OutOfMemoryError e) {
+                System.out.println(size + "\tout of memory");
+                break;
+            }
+            if (size > Long.MAX_VALUE / factor) break;
+        }
+    }
+
+    private static void run(HornKBGenerator generator, boolean offHeap, long seconds, Random random) {
+        System.gc();
+        HeapSampler heap = new HeapSampler();
+        long start, compile, querying;
+        long queries = 0, satisfiable = 0, errors = 0;
+        try {
+            start = System.nanoTime();
+            CompiledKB kb = generator.compile(offHeap);
+            LTUR ltur = new LTUR(kb);
+            compile = System.nanoTime() - start;
+
+            long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+            start = System.nanoTime();
+            do {
+                HornClause[] query = generator.query(random);
+                try {
+                    LTURResult result = ltur.query(query);
+                    if (result.isSatisfiable()) satisfiable++;
+                } catch (RuntimeException e) {
+                    errors++;
+                }
+                queries++;
+            } while (System.nanoTime() < deadline);
+            querying = System.nanoTime() - start;
+        } finally {
+            heap.finish();
+        }
+
+        System.out.println(generator.getClauses()
+                + "\t" + compile / 1_000_000
+                + "\t" + (long)(generator.getClauses() * 1e9 / compile)
+                + "\t" + queries
+                + "\t" + querying / 1000 / queries
+                + "\t" + (long)(queries * 1e9 / querying)
+                + "\t" + satisfiable
+                + "\t" + errors
+                + "\t" + heap.peak() / (1024 * 1024));
+    }
+
+    /**
+     * Daemon thread sampling the used heap, as a whole, until stopped. Summing the peaks of the single memory pools
+     * would overestimate it, as each pool reaches its peak at a different time
+     */
+    private static class HeapSampler extends Thread {
+        private static final long PERIOD_MILLIS = 10;
+
+        private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        private volatile boolean running = true;
+        private volatile long peak;
+
+        HeapSampler() {
+            super("heap-sampler");
+            setDaemon(true);
+            sample();
+            start();
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                sample();
+                try {
+                    Thread.sleep(PERIOD_MILLIS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+
+        private void sample() {
+            long used = memory.getHeapMemoryUsage().getUsed();
+            if (used > peak) peak = used;
+        }
+
+        /**
+         * Stops the sampling, after taking a last sample
+         */
+        void finish() {
+            running = false;
+            interrupt();
+            try {
+                join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            sample();
+        }
+
+        /**
+         * Returns the largest used heap sampled so far, in bytes
+         * @return
+         */
+        long peak() {
+            return peak;
+        }
+    }
+}
@@ -0,0 +1,616 @@
+/*
+ * LTURTest.java
+ * This file is part of ltur
+ *
+ * Copyright (C) 2018 giacomo
+ *
+ * ltur is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * ltur is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ltur. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package it.giacomobergami.ltur;
+
+import it.giacomobergami.ltur.RandomHornKB.Rule;
+import it.giacomobergami.ltur.metrics.EngineMetrics;
+import it.giacomobergami.ltur.structure.Agenda;
+import it.giacomobergami.ltur.structure.CompiledKB;
+import it.giacomobergami.ltur.structure.LTURResult;
+import it.giacomobergami.ltur.structure.atoms.Atom;
+import it.giacomobergami.ltur.structure.atoms.AtomTable;
+import it.giacomobergami.ltur.structure.clauses.GraphClause;
+import it.giacomobergami.ltur.structure.clauses.HornClause;
+import it.giacomobergami.ltur.workload.HornKBGenerator;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PrimitiveIterator;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class LTURTest {
+
+    private static final int SEEDS = 200;
+    private static final int ATOMS = 12;
+
+    private static List<Rule> kb(RandomHornKB g) {
+        return g.rules(5 + g.random().nextInt(25), 3, 0.08);
+    }
+
+    /**
+     * Up to three query clauses: mostly facts, some negated, some rules
+     */
+    private static Rule[] facts(RandomHornKB g) {
+        Rule[] facts = new Rule[g.random().nextInt(4)];
+        for (int i = 0; i<facts.length; i++) {
+            facts[i] = g.random().nextInt(3) == 0 ? g.rule(2, 0.1) : new Rule(g.atom(), g.random().nextInt(6) == 0);
+        }
+        return facts;
+    }
+
+    private static LTUR engine(List<Rule> kb) {
+        return new LTUR(CompiledKB.compile(RandomHornKB.clauses(kb)));
+    }
+
+    /**
+     * Evaluates the query, returning null when the minimal consistent assignment cannot be built: the post-processing
+     * of the result may try to assign an atom both ways, as the original algorithm does. The result is computed when
+     * first accessed, so that it is accessed here
+     */
+    private static LTURResult query(LTUR engine, HornClause... clauses) {
+        try {
+            LTURResult result = engine.query(clauses);
+            result.assignmentSize();
+            return result;
+        } catch (RuntimeException e) {
+            if ("Unexpected error: overwriting map values".equals(e.getMessage())) return null;
+            throw e;
+        }
+    }
+
+    private static LTURResult sliceQuery(LTUR engine, HornClause... clauses) {
+        try {
+            LTURResult result = engine.sliceQuery(clauses);
+            result.assignmentSize();
+            return result;
+        } catch (RuntimeException e) {
+            if ("Unexpected error: overwriting map values".equals(e.getMessage())) return null;
+            throw e;
+        }
+    }
+
+    private static Set<Atom> assignment(LTURResult result) {
+        return result == null ? null : result.getMinimalConsistentAssigment();
+    }
+
+    @Test
+    public void queryMatchesTheLeastModel() {
+        int checked = 0;
+        for (int seed = 0; seed<SEEDS; seed++) {
+            RandomHornKB g = new RandomHornKB(seed, ATOMS);
+            List<Rule> kb = kb(g);
+            LTUR engine = engine(kb);
+            for (int q = 0; q<20; q++) {
+                Rule[] facts = facts(g);
+                List<Rule> all = RandomHornKB.union(kb, facts);
+                LTURResult result = query(engine, RandomHornKB.clauses(facts));
+                if (result == null) continue;
+                checked++;
+                assertEquals("seed " + seed, RandomHornKB.isSatisfiable(all), result.isSatisfiable());
+                if (!result.isSatisfiable()) continue;
+                Set<String> model = RandomHornKB.leastModel(all);
+                for (int x = 0; x<ATOMS; x++) {
+                    assertEquals("seed " + seed + " a" + x, model.contains("a" + x), result.contains(new Atom("a" + x)));
+                }
+            }
+        }
+        assertTrue(checked > SEEDS * 18);
+    }
+
+    @Test
+    public void agendaPoliciesMatchTheLeastModel() {
+        for (Agenda.Policy policy : Agenda.Policy.values()) {
+            for (int seed = 0; seed<SEEDS; seed++) {
+                RandomHornKB g = new RandomHornKB(seed, ATOMS);
+                List<Rule> kb = kb(g);
+                LTUR engine = engine(kb);
+                engine.setAgendaPolicy(policy);
+                for (int q = 0; q<10; q++) {
+                    Rule[] facts = facts(g);
+                    List<Rule> all = RandomHornKB.union(kb, facts);
+                    LTURResult result = query(engine, RandomHornKB.clauses(facts));
+                    if (result == null) continue;
+                    assertEquals(policy + " seed " + seed, RandomHornKB.isSatisfiable(all), result.isSatisfiable());
+                    if (!result.isSatisfiable()) continue;
+                    Set<String> model = RandomHornKB.leastModel(all);
+                    for (int x = 0; x<ATOMS; x++) {
+                        assertEquals(policy + " seed " + seed, model.contains("a" + x),
+                                result.contains(new Atom("a" + x)));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void entailsMatchesTheLeastModel() {
+        for (int seed = 0; seed<SEEDS; seed++) {
+            RandomHornKB g = new RandomHornKB(seed, ATOMS);
+            List<Rule> kb = kb(g);
+            LTUR engine = engine(kb);
+            for (int q = 0; q<20; q++) {
+                Rule[] facts = facts(g);
+                List<Rule> all = RandomHornKB.union(kb, facts);
+                HornClause[] clauses = RandomHornKB.clauses(facts);
+                Set<String> model = RandomHornKB.leastModel(all);
+                for (int x = 0; x<ATOMS + 2; x++) {
+                    assertEquals("seed " + seed + " a" + x, model.contains("a" + x),
+                            engine.entails(new Atom("a" + x), clauses));
+                }
+                assertEquals("seed " + seed, !RandomHornKB.isSatisfiable(all), engine.contradicts(clauses));
+                String goal = g.atom();
+                assertEquals("seed " + seed, !RandomHornKB.isSatisfiable(RandomHornKB.union(all, new Rule(goal, false))),
+                        engine.entails(new Atom(goal).negate(), clauses));
+            }
+        }
+    }
+
+    @Test
+    public void entailsFollowsTheAssertedClauses() {
+        ArrayList<HornClause> chain = new ArrayList<>();
+        for (int i = 0; i<100000; i++) {
+            chain.add(HornClause.classicHornClause("a" + (i + 1), "a" + i));
+        }
+        LTUR engine = new LTUR(CompiledKB.compile(chain));
+        for (int i = 0; i<3; i++) {
+            assertTrue(engine.entails(new Atom("a1"), HornClause.fact("a0")));
+            assertTrue(engine.entails(new Atom("a100000"), HornClause.fact("a0")));
+            assertFalse(engine.entails(new Atom("a100000"), HornClause.fact("b"), HornClause.fact("a100001")));
+            assertFalse(engine.entails(new Atom("a0"), HornClause.fact("a1")));
+        }
+        HornClause bridge = HornClause.classicHornClause("a50000", "b");
+        engine.assertClause(bridge);
+        assertTrue(engine.entails(new Atom("a100000"), HornClause.fact("b")));
+        assertFalse(engine.entails(new Atom("a49999"), HornClause.fact("b")));
+        engine.retractClause(bridge);
+        assertFalse(engine.entails(new Atom("a100000"), HornClause.fact("b")));
+        assertTrue(engine.entails(new Atom("a100000"), HornClause.fact("c"), HornClause.classicHornClause("a2", "c")));
+    }
+
+    /**
+     * Random rules over the atoms d&lt;domain&gt;a&lt;i&gt;, so that the domains share no atom
+     */
+    private static List<Rule> domain(RandomHornKB g, int domain) {
+        List<Rule> rules = new ArrayList<>();
+        for (Rule r : kb(g)) {
+            String[] body = new String[r.body.length];
+            for (int i = 0; i<body.length; i++) {
+                body[i] = "d" + domain + r.body[i];
+            }
+            rules.add(new Rule("d" + domain + r.head, r.negated, body));
+        }
+        return rules;
+    }
+
+    private static Set<String> trueAtoms(LTURResult result) {
+        Set<String> atoms = new HashSet<>();
+        for (Atom a : result.getMinimalConsistentAssigment()) {
+            if (!a.isNegated()) atoms.add(a.name);
+        }
+        return atoms;
+    }
+
+    @Test
+    public void sliceQueryMatchesTheFullQueryOnItsDomain() {
+        int checked = 0, smaller = 0;
+        for (int seed = 0; seed<SEEDS; seed++) {
+            RandomHornKB g = new RandomHornKB(seed, ATOMS);
+            int domains = 2 + g.random().nextInt(3);
+            List<Rule> kb = new ArrayList<>();
+            for (int d = 0; d<domains; d++) {
+                kb.addAll(domain(g, d));
+            }
+            LTUR engine = engine(kb);
+            LTURResult base = query(engine);
+            if (base == null) continue;
+            Set<String> baseAtoms = base.isSatisfiable() ? trueAtoms(base) : null;
+            for (int q = 0; q<20; q++) {
+                int d = g.random().nextInt(domains);
+                Rule[] facts = new Rule[1 + g.random().nextInt(3)];
+                for (int i = 0; i<facts.length; i++) {
+                    facts[i] = new Rule("d" + d + g.atom(), g.random().nextInt(6) == 0);
+                }
+                HornClause[] clauses = RandomHornKB.clauses(facts);
+                LTURResult full = query(engine, clauses), slice = sliceQuery(engine, clauses);
+                if (full == null || slice == null) continue;
+                checked++;
+
+                // The conflicts of the slice are conflicts of the whole KB, and the only ones if the KB alone has none
+                for (PrimitiveIterator.OfInt i = slice.unsatisfiedIds(); i.hasNext(); ) {
+                    assertTrue("seed " + seed, full.isUnsatisfied(i.nextInt()));
+                }
+                if (base.isSatisfiable()) assertEquals("seed " + seed, full.isSatisfiable(), slice.isSatisfiable());
+                if (!full.isSatisfiable() || !slice.isSatisfiable()) continue;
+
+                // The slice only reports the queried domain, including everything the query derived there
+                Set<String> fullAtoms = trueAtoms(full), sliceAtoms = trueAtoms(slice);
+                for (String a : sliceAtoms) {
+                    assertTrue("seed " + seed + " " + a, a.startsWith("d" + d + "a") && fullAtoms.contains(a));
+                }
+                for (String a : fullAtoms) {
+                    if (!baseAtoms.contains(a)) assertTrue("seed " + seed + " " + a, sliceAtoms.contains(a));
+                }
+                assertTrue(slice.satisfiedCount() <= full.satisfiedCount());
+                if (slice.satisfiedCount() < full.satisfiedCount()) smaller++;
+            }
+        }
+        assertTrue(checked > SEEDS * 10);
+        assertTrue(smaller > checked / 4);
+    }
+
+    @Test
+    public void explanationsAreUnsatisfiable() {
+        int explained = 0;
+        for (int seed = 0; seed<SEEDS; seed++) {
+            RandomHornKB g = new RandomHornKB(seed, ATOMS);
+            List<Rule> kb = kb(g);
+            LTUR engine = engine(kb);
+            for (int q = 0; q<20; q++) {
+                HornClause[] clauses = RandomHornKB.clauses(facts(g));
+                LTURResult result = query(engine, clauses);
+                if (result == null) continue;
+                for (PrimitiveIterator.OfInt i = result.unsatisfiedIds(); i.hasNext(); ) {
+                    int conflict = i.nextInt();
+                    List<GraphClause> explanation = engine.explain(conflict, clauses);
+                    assertFalse(explanation.isEmpty());
+                    assertEquals(AtomTable.NONE, explanation.get(0).positiveAtom());
+                    Set<Integer> model = leastModel(explanation);
+                    for (int literal : explanation.get(0).getLiterals()) {
+                        assertTrue("seed " + seed, model.contains(AtomTable.atomOf(literal)));
+                    }
+                    explained++;
+                }
+            }
+        }
+        assertTrue(explained > 0);
+    }
+
+    /**
+     * Least model of the clauses with a positive atom, as atom identifiers
+     */
+    private static Set<Integer> leastModel(List<GraphClause> clauses) {
+        Set<Integer> model = new HashSet<>();
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (GraphClause gc : clauses) {
+                int head = gc.positiveAtom();
+                if (head == AtomTable.NONE || model.contains(head)) continue;
+                boolean fires = true;
+                for (int literal : gc.getLiterals()) {
+                    if (AtomTable.isNegated(literal) && !model.contains(AtomTable.atomOf(literal))) fires = false;
+                }
+                if (fires) {
+                    model.add(head);
+                    changed = true;
+                }
+            }
+        }
+        return model;
+    }
+
+    @Test
+    public void popMatchesAFreshEngine() {
+        for (int seed = 0; seed<SEEDS; seed++) {
+            RandomHornKB g = new RandomHornKB(seed, ATOMS);
+            List<Rule> kb = kb(g);
+            List<Rule> asserted = g.rules(g.random().nextInt(4), 2, 0.05);
+            LTUR engine = engine(kb);
+            LTUR fresh = engine(kb);
+            for (Rule r : asserted) {
+                engine.assertClause(r.clause());
+                fresh.assertClause(r.clause());
+            }
+            for (int k = 0; k<5; k++) {
+                engine.push();
+                for (int i = g.random().nextInt(4); i>0; i--) {
+                    int op = g.random().nextInt(3);
+                    if (op == 0) {
+                        engine.retractClause(kb.get(g.random().nextInt(kb.size())).clause());
+                    } else if (op == 1 && !asserted.isEmpty()) {
+                        engine.retractClause(asserted.get(g.random().nextInt(asserted.size())).clause());
+                    } else {
+                        engine.assertClause(g.rule(2, 0.1).clause());
+                    }
+                    query(engine, RandomHornKB.clauses(facts(g)));
+                }
+                engine.pop();
+                for (int q = 0; q<5; q++) {
+                    HornClause[] clauses = RandomHornKB.clauses(facts(g));
+                    LTURResult expected = query(fresh, clauses), actual = query(engine, clauses);
+                    if (expected == null || actual == null) continue;
+                    assertEquals("seed " + seed, expected.isSatisfiable(), actual.isSatisfiable());
+                    if (expected.isSatisfiable()) {
+                        assertEquals("seed " + seed, expected.getMinimalConsistentAssigment(),
+                                actual.getMinimalConsistentAssigment());
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void derivedAtomsDoNotDependOnTheQueryOrder() {
+        // a5 is both a query fact and derived by a4 -> a5: it has to be assigned either way, so that !a1 is inferred
+        LTUR engine = engine(java.util.Arrays.asList(new Rule("a5", false, "a4"), new Rule("a1", true, "a5")));
+        HornClause[] a4a5 = {HornClause.fact("a4"), HornClause.fact("a5")};
+        HornClause[] a5a4 = {HornClause.fact("a5"), HornClause.fact("a4")};
+        Set<Atom> expected = new HashSet<>(java.util.Arrays.asList(new Atom("a4"), new Atom("a5"), new Atom("a1").negate()));
+        assertEquals(expected, engine.query(a4a5).getMinimalConsistentAssigment());
+        assertEquals(expected, engine.query(a5a4).getMinimalConsistentAssigment());
+    }
+
+    @Test
+    public void trailOnlyRecordsTheChangesAfterTheKB() {
+        HornKBGeneratorEngine generated = new HornKBGeneratorEngine(5);
+        LTUR engine = generated.engine;
+        long bytes = engine.footprint().heapBytes("trail");
+        assertTrue(bytes < 1024);
+        HornClause fact = generated.kb.hornClause(generated.kb.initialClauses()[0]);
+        engine.push();
+        assertTrue(engine.retractClause(fact));
+        assertFalse(engine.retractClause(HornClause.fact("never interned")));
+        engine.query(HornClause.fact("a1"));
+        engine.pop();
+        assertTrue(engine.footprint().heapBytes("trail") < 1024);
+        LTUR fresh = new LTUR(generated.kb);
+        assertEquals(fresh.query(HornClause.fact("a1")).getMinimalConsistentAssigment(),
+                engine.query(HornClause.fact("a1")).getMinimalConsistentAssigment());
+    }
+
+    @Test
+    public void baseModelEnginesMatchFreshEngines() {
+        HornKBGeneratorEngine generated = new HornKBGeneratorEngine(6);
+        LTUR.BaseModel base = LTUR.BaseModel.of(generated.kb);
+        LTUR engine = base.newEngine(), other = base.newEngine();
+        assertEquals(0, generated.engine.footprint().heapBytes("shared base model"));
+        assertTrue(engine.footprint().heapBytes("shared base model") > 0);
+        HornClause fact = generated.kb.hornClause(generated.kb.initialClauses()[0]);
+        for (LTUR e : new LTUR[]{engine, generated.engine}) {
+            e.push();
+            assertTrue(e.retractClause(fact));
+        }
+        Random random = new Random(6);
+        for (int i = 0; i<3; i++) {
+            HornClause[] clauses = generated.generator.query(random);
+            assertEquals(assignment(query(generated.engine, clauses)), assignment(query(engine, clauses)));
+        }
+        engine.pop();
+        generated.engine.pop();
+        for (int i = 0; i<3; i++) {
+            HornClause[] clauses = generated.generator.query(random);
+            Set<Atom> expected = assignment(query(generated.engine, clauses));
+            assertEquals(expected, assignment(query(engine, clauses)));
+            assertEquals(expected, assignment(query(other, clauses)));
+        }
+    }
+
+    @Test
+    public void queriesForgetTheirAtoms() {
+        LTUR engine = new LTUR();
+        engine.assertClause(HornClause.classicHornClause("b", "a"));
+        long bytes = engine.footprint().heapBytes("atom names");
+        for (int i = 0; i<1000; i++) {
+            engine.query(HornClause.fact("q" + i));
+            engine.entails(new Atom("g" + i), HornClause.fact("f" + i));
+            engine.contradicts(HornClause.fact("c" + i));
+            engine.push();
+            engine.assertClause(HornClause.fact("p" + i));
+            engine.pop();
+        }
+        assertEquals(bytes, engine.footprint().heapBytes("atom names"));
+    }
+
+    @Test
+    public void resultsOutliveTheQuery() {
+        LTUR engine = new LTUR();
+        engine.push();
+        engine.assertClause(HornClause.classicHornClause("b", "a"));
+        LTURResult result = engine.query(HornClause.fact("a"));
+        Set<Atom> assignment = result.getMinimalConsistentAssigment();
+        assertTrue(assignment.contains(new Atom("b")));
+        engine.pop();
+        engine.assertClause(HornClause.fact("x"));
+        engine.query(HornClause.fact("y"), HornClause.fact("z"));
+        assertEquals(assignment, result.getMinimalConsistentAssigment());
+        assertTrue(result.contains(new Atom("a")));
+        assertTrue(result.contains(new Atom("b")));
+        assertEquals(1, result.satisfiedCount());
+    }
+
+    @Test
+    public void resultsAreComputedFromTheStateOfTheirQuery() {
+        HornKBGeneratorEngine generated = new HornKBGeneratorEngine(7);
+        LTUR engine = generated.engine;
+        Random random = new Random(7);
+        engine.assertClause(HornClause.classicHornClause("a1", "a2"));
+        List<LTURResult> lazy = new ArrayList<>();
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i<10; i++) {
+            HornClause[] clauses = generated.generator.query(random);
+            LTURResult accessed = query(engine, clauses);
+            if (accessed == null) continue;
+            lazy.add(engine.query(clauses));
+            expected.add(accessed.getSatisfiedClauses() + " " + accessed.getUnsatisfiedClauses() + " "
+                    + accessed.getMinimalConsistentAssigment());
+            // The following queries and assertions must not change the results that were not accessed yet
+            engine.assertClause(HornClause.fact("a" + (3 + i)));
+        }
+        assertFalse(lazy.isEmpty());
+        for (int i = 0; i<lazy.size(); i++) {
+            LTURResult result = lazy.get(i);
+            assertEquals(expected.get(i), result.getSatisfiedClauses() + " " + result.getUnsatisfiedClauses() + " "
+                    + result.getMinimalConsistentAssigment());
+        }
+    }
+
+    @Test
+    public void cachedResultsMatchTheEvaluatedOnes() {
+        LTUR engine = new HornKBGeneratorEngine(1).engine;
+        QueryCache cache = engine.enableQueryCache(16);
+        EngineMetrics metrics = new EngineMetrics();
+        engine.setMetricsListener(metrics);
+        HornClause[] query = {HornClause.fact("a1"), HornClause.fact("a2"), HornClause.fact("a3")};
+        LTURResult first = engine.query(query);
+        List<HornClause> reversed = new ArrayList<>(java.util.Arrays.asList(query));
+        Collections.reverse(reversed);
+        LTURResult second = engine.query(reversed.toArray(new HornClause[0]));
+        assertEquals(1, cache.hits());
+        assertEquals(first.getMinimalConsistentAssigment(), second.getMinimalConsistentAssigment());
+        engine.assertClause(HornClause.fact("a4"));
+        engine.query(query);
+        assertEquals(1, cache.hits());
+        assertEquals(2, cache.misses());
+        assertEquals(2, metrics.snapshot().queries());
+        assertEquals(1, metrics.snapshot().cacheHits());
+    }
+
+    /**
+     * Satisfiability, unsatisfied clauses and assignment of the result, or the error raised while computing it
+     */
+    private static List<Object> summary(LTURResult result) {
+        List<Object> summary = new ArrayList<>();
+        summary.add(result.isSatisfiable());
+        try {
+            for (PrimitiveIterator.OfInt i = result.unsatisfiedIds(); i.hasNext(); ) {
+                summary.add(i.nextInt());
+            }
+            summary.add(result.getMinimalConsistentAssigment());
+        } catch (RuntimeException e) {
+            summary.add(e.getMessage());
+        }
+        return summary;
+    }
+
+    @Test
+    public void queryAllMatchesTheSequentialQueries() {
+        for (int seed = 0; seed<SEEDS; seed += 10) {
+            RandomHornKB g = new RandomHornKB(seed, ATOMS);
+            List<Rule> kb = kb(g);
+            LTUR engine = engine(kb);
+            engine.assertClause(g.rule(2, 0.1).clause());
+            List<HornClause[]> queries = new ArrayList<>();
+            for (int q = 0; q<100; q++) {
+                queries.add(RandomHornKB.clauses(facts(g)));
+            }
+            EngineMetrics metrics = new EngineMetrics();
+            engine.setMetricsListener(metrics);
+            List<LTURResult> results = engine.queryAll(queries, 4);
+            assertEquals(queries.size(), metrics.snapshot().queries());
+            engine.setMetricsListener(null);
+            assertEquals(queries.size(), results.size());
+            for (int q = 0; q<queries.size(); q++) {
+                assertEquals("seed " + seed, summary(engine.query(queries.get(q))), summary(results.get(q)));
+            }
+        }
+        assertTrue(new LTUR().queryAll(new ArrayList<>()).isEmpty());
+    }
+
+    @Test
+    public void queryAllSharesTheQueryCache() {
+        HornKBGeneratorEngine generated = new HornKBGeneratorEngine(8);
+        QueryCache cache = generated.engine.enableQueryCache(100);
+        Random random = new Random(8);
+        List<HornClause[]> queries = new ArrayList<>();
+        for (int q = 0; q<50; q++) {
+            queries.add(generated.generator.query(random));
+        }
+        List<HornClause[]> repeated = new ArrayList<>(queries);
+        repeated.addAll(queries);
+        List<LTURResult> results = generated.engine.queryAll(repeated, 3);
+        assertEquals(repeated.size(), cache.hits() + cache.misses());
+        assertTrue(cache.hits() >= queries.size() - 3);
+        for (int q = 0; q<queries.size(); q++) {
+            assertEquals(summary(results.get(q)), summary(results.get(q + queries.size())));
+        }
+    }
+
+    @Test
+    public void parallelPropagationMatchesTheSequentialOne() {
+        for (int seed = 0; seed<4; seed++) {
+            CompiledKB kb = CompiledKB.compile(wideKB(seed));
+            LTUR sequential = new LTUR(kb);
+            try (LTUR parallel = new LTUR(kb)) {
+                parallel.setParallelism(2);
+                Random random = new Random(seed);
+                for (int q = 0; q<10; q++) {
+                    HornClause[] query = {HornClause.fact("s"), HornClause.fact("t" + random.nextInt(WIDE))};
+                    LTURResult expected = sequential.query(query), actual = parallel.query(query);
+                    assertEquals(expected.isSatisfiable(), actual.isSatisfiable());
+                    if (expected.isSatisfiable()) {
+                        assertEquals(expected.getMinimalConsistentAssigment(), actual.getMinimalConsistentAssigment());
+                    } else {
+                        assertEquals(expected.getMinimalInsonsistentAtomSets(),
+                                actual.getMinimalInsonsistentAtomSets());
+                    }
+                }
+                assertEquals(0, sequential.parallelLevels);
+                assertTrue(parallel.parallelLevels > 0);
+            }
+        }
+    }
+
+    private static final int WIDE = 4 * 1024;
+
+    /**
+     * KB where the fact s makes WIDE clauses fire at once, so that the frontier is large enough to be propagated in
+     * parallel. Their atoms x_i derive the atoms y_j in pairs, and few constraints forbid y_j along with an atom t_k
+     */
+    private static List<HornClause> wideKB(long seed) {
+        Random random = new Random(seed);
+        List<HornClause> kb = new ArrayList<>();
+        for (int i = 0; i<WIDE; i++) {
+            kb.add(HornClause.classicHornClause("x" + i, "s"));
+        }
+        for (int j = 0; j<WIDE; j++) {
+            kb.add(HornClause.classicHornClause("y" + j, "x" + random.nextInt(WIDE), "x" + random.nextInt(WIDE)));
+        }
+        for (int k = 0; k<WIDE / 64; k++) {
+            kb.add(HornClause.negatedHeadHornClause("y" + random.nextInt(WIDE), "t" + random.nextInt(WIDE)));
+        }
+        return kb;
+    }
+
+    /**
+     * Engine over a larger generated KB, with many clauses waiting for propagation at once
+     */
+    private static class HornKBGeneratorEngine {
+        final HornKBGenerator generator;
+        final CompiledKB kb;
+        final LTUR engine;
+
+        HornKBGeneratorEngine(long seed) {
+            generator = new HornKBGenerator().setAtoms(2500).setClauses(10000).setSeed(seed).setFactRatio(0.02)
+                    .setSatisfiability(HornKBGenerator.Satisfiability.SATISFIABLE).setQueryFacts(50);
+            kb = generator.compile();
+            engine = new LTUR(kb);
+        }
+    }
+}
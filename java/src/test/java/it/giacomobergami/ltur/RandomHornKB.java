@@ -0,0 +1,148 @@
+/*
+ * RandomHornKB.java
+ * This file is part of ltur
+ *
+ * Copyright (C) 2018 giacomo
+ *
+ * ltur is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * ltur is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ltur. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package it.giacomobergami.ltur;
+
+import it.giacomobergami.ltur.structure.clauses.HornClause;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Random Horn clauses over a few atoms, along with the brute-force least model the engine results are checked against
+ */
+public class RandomHornKB {
+
+    /**
+     * Clause body -&gt; head, or body -&gt; !head when the head is negated
+     */
+    public static class Rule {
+        public final String head;
+        public final boolean negated;
+        public final String[] body;
+
+        public Rule(String head, boolean negated, String... body) {
+            this.head = head;
+            this.negated = negated;
+            this.body = body;
+        }
+
+        public HornClause clause() {
+            return negated ? HornClause.negatedHeadHornClause(head, body) : HornClause.classicHornClause(head, body);
+        }
+
+        @Override
+        public String toString() {
+            return clause().toString();
+        }
+    }
+
+    private final Random random;
+    private final int atoms;
+
+    public RandomHornKB(long seed, int atoms) {
+        random = new Random(seed);
+        this.atoms = atoms;
+    }
+
+    public Random random() {
+        return random;
+    }
+
+    public String atom() {
+        return "a" + random.nextInt(atoms);
+    }
+
+    /**
+     * Returns a clause with up to maxBody distinct body atoms, whose head is negated with the given probability
+     */
+    public Rule rule(int maxBody, double negatedRatio) {
+        int n = random.nextInt(maxBody + 1);
+        Set<String> body = new LinkedHashSet<>();
+        for (int i = 0; i<n; i++) {
+            body.add(atom());
+        }
+        return new Rule(atom(), random.nextDouble() < negatedRatio, body.toArray(new String[0]));
+    }
+
+    public List<Rule> rules(int n, int maxBody, double negatedRatio) {
+        List<Rule> rules = new ArrayList<>();
+        for (int i = 0; i<n; i++) {
+            rules.add(rule(maxBody, negatedRatio));
+        }
+        return rules;
+    }
+
+    public static List<HornClause> clauses(List<Rule> rules) {
+        List<HornClause> clauses = new ArrayList<>();
+        for (Rule r : rules) {
+            clauses.add(r.clause());
+        }
+        return clauses;
+    }
+
+    public static HornClause[] clauses(Rule... rules) {
+        return clauses(Arrays.asList(rules)).toArray(new HornClause[0]);
+    }
+
+    /**
+     * Least model of the clauses with a non-negated head, by repeated fixpoint iteration
+     */
+    public static Set<String> leastModel(List<Rule> rules) {
+        Set<String> model = new HashSet<>();
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (Rule r : rules) {
+                if (!r.negated && !model.contains(r.head) && model.containsAll(Arrays.asList(r.body))) {
+                    model.add(r.head);
+                    changed = true;
+                }
+            }
+        }
+        return model;
+    }
+
+    /**
+     * Whether the least model satisfies all the clauses with a negated head. As in LTUR, the clauses whose negated head
+     * also occurs in the body never fire, since they repeat a negated atom
+     */
+    public static boolean isSatisfiable(List<Rule> rules) {
+        Set<String> model = leastModel(rules);
+        for (Rule r : rules) {
+            if (r.negated && !Arrays.asList(r.body).contains(r.head) && model.contains(r.head)
+                    && model.containsAll(Arrays.asList(r.body)))
+                return false;
+        }
+        return true;
+    }
+
+    public static List<Rule> union(List<Rule> rules, Rule... more) {
+        List<Rule> all = new ArrayList<>(rules);
+        all.addAll(Arrays.asList(more));
+        return all;
+    }
+}
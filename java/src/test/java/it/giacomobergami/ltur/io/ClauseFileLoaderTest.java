@@ -0,0 +1,159 @@
+/*
+ * ClauseFileLoaderTest.java
+ * This file is part of ltur
+ *
+ * Copyright (C) 2018 giacomo
+ *
+ * ltur is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * ltur is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ltur. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package it.giacomobergami.ltur.io;
+
+import it.giacomobergami.ltur.structure.CompiledKB;
+import it.giacomobergami.ltur.structure.clauses.HornClause;
+import it.giacomobergami.ltur.workload.HornKBGenerator;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ClauseFileLoaderTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private Path write(String name, List<String> lines) throws IOException {
+        Path file = folder.newFile(name).toPath();
+        Files.write(file, lines, StandardCharsets.UTF_8);
+        return file;
+    }
+
+    private static CompiledKB read(Path file, ClauseFileLoader.Format format, long window) throws IOException {
+        CompiledKB.Builder builder = new CompiledKB.Builder();
+        new ClauseFileLoader(format, builder, window).read(file);
+        return builder.build();
+    }
+
+    /**
+     * Compares the clauses, as the atom identifiers depend on the order in which they are first met
+     */
+    private static void assertSameClauses(CompiledKB expected, CompiledKB actual) {
+        assertEquals(expected.clauseCount(), actual.clauseCount());
+        for (int c = 0; c<expected.clauseCount(); c++) {
+            assertEquals(expected.hornClause(c).toString(), actual.hornClause(c).toString());
+        }
+    }
+
+    private static List<HornClause> generate() {
+        List<HornClause> clauses = new ArrayList<>();
+        new HornKBGenerator().setAtoms(500).setClauses(2000).setSeed(1).setFactRatio(0.02)
+                .setNegatedHeadRatio(0.05).generate(clauses::add);
+        return clauses;
+    }
+
+    @Test
+    public void textReadsTheHornClauses() throws IOException {
+        List<HornClause> clauses = generate();
+        List<String> lines = new ArrayList<>();
+        lines.add("# generated clauses");
+        for (HornClause hc : clauses) {
+            lines.add(hc.toString());
+        }
+        lines.add("");
+        assertSameClauses(CompiledKB.compile(clauses), ClauseFileLoader.load(write("kb.txt", lines)));
+    }
+
+    @Test
+    public void textAcceptsBothSyntaxes() throws IOException {
+        Path file = write("kb.txt", Arrays.asList("a, b -> c", "  a,b->!c   # comment", "", "!d\r", "\u00acd",
+                "a \u2227 b \u21d2 \u00acc", "e # fact", "# only a comment"));
+        CompiledKB expected = CompiledKB.compile(Arrays.asList(HornClause.classicHornClause("c", "a", "b"),
+                HornClause.negatedHeadHornClause("c", "a", "b"), HornClause.negatedFact("d"),
+                HornClause.negatedFact("d"), HornClause.negatedHeadHornClause("c", "a", "b"), HornClause.fact("e")));
+        assertSameClauses(expected, ClauseFileLoader.load(file));
+    }
+
+    @Test
+    public void dimacsMatchesTheText() throws IOException {
+        Path dimacs = write("kb.cnf", Arrays.asList("c comment", "p cnf 4 4", "1 -2 0", "-1 -3", " 4 0", "-4 0",
+                "-1 -2 -3 0", "3 0"));
+        Path text = write("kb.txt", Arrays.asList("2 -> 1", "1, 3 -> 4", "!4", "1, 2 -> !3", "3"));
+        assertEquals(ClauseFileLoader.Format.DIMACS, ClauseFileLoader.Format.of(dimacs));
+        assertSameClauses(ClauseFileLoader.load(text), ClauseFileLoader.load(dimacs));
+    }
+
+    @Test
+    public void windowsSplittingTheLinesMatchTheWholeFile() throws IOException {
+        List<String> lines = new ArrayList<>();
+        for (HornClause hc : generate()) {
+            lines.add(hc.toString());
+        }
+        Path text = write("kb.txt", lines);
+        CompiledKB whole = ClauseFileLoader.load(text);
+        for (long window : new long[]{128, 129, 1000, 4096}) {
+            assertSameClauses(whole, read(text, ClauseFileLoader.Format.TEXT, window));
+        }
+
+        // Clauses spanning several lines, and lines spanning the windows
+        List<String> cnf = new ArrayList<>();
+        cnf.add("p cnf 100 300");
+        for (int i = 1; i<=100; i++) {
+            cnf.add(i + " -" + (i % 100 + 1));
+            cnf.add("-" + ((i * 7) % 100 + 1) + " 0");
+        }
+        Path dimacs = write("kb.cnf", cnf);
+        CompiledKB wholeDimacs = ClauseFileLoader.load(dimacs);
+        assertEquals(100, wholeDimacs.clauseCount());
+        for (long window : new long[]{16, 17, 64}) {
+            assertSameClauses(wholeDimacs, read(dimacs, ClauseFileLoader.Format.DIMACS, window));
+        }
+    }
+
+    @Test
+    public void linesLongerThanTheWindowAreRejected() throws IOException {
+        Path file = write("kb.txt", Arrays.asList("a -> b", "a, b, c, d, e, f, g, h -> i"));
+        try {
+            read(file, ClauseFileLoader.Format.TEXT, 16);
+            fail();
+        } catch (IOException e) {
+            assertTrue(e.getMessage().startsWith("Line 2"));
+        }
+    }
+
+    @Test
+    public void malformedClausesAreRejected() throws IOException {
+        String[][] files = {{"kb.txt", "a -> b", "!a -> b"}, {"kb.txt", "a, -> b"}, {"kb.txt", "a ->"},
+                {"kb.cnf", "1 2 0"}, {"kb.cnf", "1 -2"}, {"kb.cnf", "1 x 0"}};
+        for (int i = 0; i<files.length; i++) {
+            Path file = write(i + files[i][0], Arrays.asList(files[i]).subList(1, files[i].length));
+            try {
+                ClauseFileLoader.load(file);
+                fail(Arrays.toString(files[i]));
+            } catch (IllegalArgumentException e) {
+                assertTrue(e.getMessage(), e.getMessage().startsWith("Line " + (files[i].length - 1)));
+            }
+        }
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * EngineMetricsTest.java
+ * This file is part of ltur
+ *
+ * Copyright (C) 2018 giacomo
+ *
+ * ltur is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * ltur is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ltur. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package it.giacomobergami.ltur.metrics;
+
+import it.giacomobergami.ltur.LTUR;
+import it.giacomobergami.ltur.structure.CompiledKB;
+import it.giacomobergami.ltur.structure.clauses.HornClause;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class EngineMetricsTest {
+
+    /**
+     * Chain a0 -&gt; a1 -&gt; ... -&gt; a10, and the constraint forbidding both a10 and b
+     */
+    private static LTUR chain() {
+        List<HornClause> kb = new ArrayList<>();
+        for (int i = 0; i<10; i++) {
+            kb.add(HornClause.classicHornClause("a" + (i + 1), "a" + i));
+        }
+        kb.add(HornClause.negatedHeadHornClause("b", "a10"));
+        return new LTUR(CompiledKB.compile(kb));
+    }
+
+    @Test
+    public void snapshotsAggregateTheQueries() {
+        EngineMetrics metrics = new EngineMetrics();
+        metrics.onQuery(new QueryMetrics(2, true, 10, 20, 5, 0, 1, 2, 3, 4));
+        metrics.onQuery(new QueryMetrics(1, false, 1, 2, 3, 1, 10, 20, 30, 40));
+        metrics.onCacheHit();
+        MetricsSnapshot snapshot = metrics.snapshot();
+        assertEquals(2, snapshot.queries());
+        assertEquals(1, snapshot.cacheHits());
+        assertEquals(1, snapshot.unsatisfiable());
+        assertEquals(11, snapshot.clausesPopped());
+        assertEquals(22, snapshot.decrements());
+        assertEquals(8, snapshot.assignments());
+        assertEquals(1, snapshot.conflicts());
+        assertEquals(11, snapshot.initializeNanos());
+        assertEquals(22, snapshot.propagationNanos());
+        assertEquals(33, snapshot.resultNanos());
+        assertEquals(44, snapshot.restoreNanos());
+        assertEquals(100, snapshot.maxQueryNanos());
+        assertEquals(110, snapshot.totalNanos());
+        assertEquals(55, snapshot.averageQueryNanos(), 0);
+
+        metrics.reset();
+        snapshot = metrics.snapshot();
+        assertEquals(0, snapshot.queries());
+        assertEquals(0, snapshot.cacheHits());
+        assertEquals(0, snapshot.maxQueryNanos());
+        assertEquals(0, snapshot.averageQueryNanos(), 0);
+    }
+
+    @Test
+    public void queriesReportTheirPropagation() {
+        LTUR engine = chain();
+        List<QueryMetrics> queries = new ArrayList<>();
+        EngineMetrics metrics = new EngineMetrics();
+        engine.setMetricsListener(metrics.andThen(queries::add));
+
+        // The fact a0, then each rule propagating the following atom, while a10 also decrements the constraint
+        assertTrue(engine.query(HornClause.fact("a0")).isSatisfiable());
+        QueryMetrics q = queries.get(0);
+        assertEquals(1, q.queryClauses());
+        assertTrue(q.isSatisfiable());
+        assertEquals(11, q.clausesPopped());
+        assertEquals(11, q.decrements());
+        assertEquals(10, q.assignments());
+        assertEquals(0, q.conflicts());
+        assertTrue(q.propagationNanos() >= 0 && q.resultNanos() >= 0 && q.restoreNanos() >= 0);
+
+        // The constraint is also decremented by b, and then violated
+        assertFalse(engine.query(HornClause.fact("a0"), HornClause.fact("b")).isSatisfiable());
+        q = queries.get(1);
+        assertEquals(2, q.queryClauses());
+        assertEquals(12, q.decrements());
+        assertEquals(1, q.conflicts());
+
+        MetricsSnapshot snapshot = metrics.snapshot();
+        assertEquals(2, snapshot.queries());
+        assertEquals(1, snapshot.unsatisfiable());
+        assertEquals(10 + q.assignments(), snapshot.assignments());
+        assertTrue(snapshot.maxQueryNanos() <= snapshot.totalNanos());
+
+        // Unmeasured queries
+        engine.setMetricsListener(null);
+        engine.query(HornClause.fact("a0"));
+        assertEquals(2, metrics.snapshot().queries());
+    }
+}
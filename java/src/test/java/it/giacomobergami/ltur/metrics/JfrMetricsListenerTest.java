@@ -0,0 +1,86 @@
+/*
+ * JfrMetricsListenerTest.java
+ * This file is part of ltur
+ *
+ * Copyright (C) 2018 giacomo
+ *
+ * ltur is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * ltur is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ltur. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package it.giacomobergami.ltur.metrics;
+
+import it.giacomobergami.ltur.LTUR;
+import it.giacomobergami.ltur.structure.CompiledKB;
+import it.giacomobergami.ltur.structure.clauses.HornClause;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compiled and run only by the {@code jfr} profile, as {@link JfrMetricsListener}
+ */
+public class JfrMetricsListenerTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void queriesEmitEventsWhileRecording() throws IOException {
+        LTUR engine = new LTUR(CompiledKB.compile(Arrays.asList(HornClause.classicHornClause("b", "a"),
+                HornClause.negatedHeadHornClause("c", "b"))));
+        engine.setMetricsListener(new JfrMetricsListener());
+        // Not recorded
+        engine.query(HornClause.fact("a"));
+
+        Path file = folder.newFile("queries.jfr").toPath();
+        try (Recording recording = new Recording()) {
+            recording.enable("it.giacomobergami.ltur.Query");
+            recording.start();
+            engine.query(HornClause.fact("a"));
+            engine.query(HornClause.fact("a"), HornClause.fact("c"));
+            recording.stop();
+            recording.dump(file);
+        }
+
+        List<RecordedEvent> events = new ArrayList<>();
+        for (RecordedEvent event : RecordingFile.readAllEvents(file)) {
+            if (event.getEventType().getName().equals("it.giacomobergami.ltur.Query")) events.add(event);
+        }
+        assertEquals(2, events.size());
+        events.sort((x, y) -> x.getStartTime().compareTo(y.getStartTime()));
+        RecordedEvent sat = events.get(0), unsat = events.get(1);
+        assertEquals(1, sat.getInt("queryClauses"));
+        assertTrue(sat.getBoolean("satisfiable"));
+        assertEquals(1, sat.getLong("assignments"));
+        assertEquals(0, sat.getLong("conflicts"));
+        assertEquals(2, unsat.getInt("queryClauses"));
+        assertFalse(unsat.getBoolean("satisfiable"));
+        assertEquals(1, unsat.getLong("conflicts"));
+        assertTrue(unsat.getLong("totalNanos") >= unsat.getLong("propagationNanos"));
+        assertFalse(unsat.getDuration().isNegative());
+    }
+}
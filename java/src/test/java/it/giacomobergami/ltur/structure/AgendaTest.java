@@ -0,0 +1,117 @@
+/*
+ * AgendaTest.java
+ * This file is part of ltur
+ *
+ * Copyright (C) 2018 giacomo
+ *
+ * ltur is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * ltur is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ltur. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package it.giacomobergami.ltur.structure;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class AgendaTest {
+
+    /**
+     * Fan-out of the clauses in the FAN_OUT tests: clause c has fan-out c mod 5
+     */
+    private static Agenda agenda(Agenda.Policy policy) {
+        return new Agenda(policy, c -> c % 5);
+    }
+
+    private static void addAll(Agenda agenda, int... clauses) {
+        for (int c : clauses) {
+            agenda.add(c);
+        }
+    }
+
+    @Test
+    public void policiesPollInTheirOrder() {
+        int[] clauses = {3, 10, 7, 4, 0, 9, 14};
+        Agenda fifo = agenda(Agenda.Policy.FIFO), lifo = agenda(Agenda.Policy.LIFO),
+                fanOut = agenda(Agenda.Policy.FAN_OUT);
+        for (Agenda agenda : new Agenda[]{fifo, lifo, fanOut}) {
+            addAll(agenda, clauses);
+        }
+        assertArrayEquals(clauses, fifo.drain());
+        assertArrayEquals(new int[]{14, 9, 0, 4, 7, 10, 3}, lifo.drain());
+        // Fan-outs 4, 4, 4, 3, 2, 0, 0: the ties are broken by clause identifier
+        assertArrayEquals(new int[]{4, 9, 14, 3, 7, 0, 10}, fanOut.drain());
+    }
+
+    @Test
+    public void queuedClausesAreNotAddedTwice() {
+        for (Agenda.Policy policy : Agenda.Policy.values()) {
+            Agenda agenda = agenda(policy);
+            assertTrue(agenda.add(1));
+            assertTrue(agenda.add(2));
+            assertFalse(agenda.add(1));
+            assertEquals(2, agenda.size());
+            agenda.poll();
+            agenda.poll();
+            assertTrue(agenda.isEmpty());
+            assertTrue(agenda.add(1));
+        }
+    }
+
+    @Test
+    public void interleavedAddsAndPollsKeepTheOrder() {
+        // Enough clauses to grow the buffers, with the FIFO ring wrapping around
+        for (Agenda.Policy policy : Agenda.Policy.values()) {
+            Agenda agenda = agenda(policy);
+            int next = 0, polled = 0, previous = -1;
+            for (int round = 0; round<20; round++) {
+                for (int i = 0; i<round + 3; i++) {
+                    agenda.add(next++);
+                }
+                for (int i = 0; i<round + 1; i++) {
+                    int c = agenda.poll();
+                    polled++;
+                    if (policy == Agenda.Policy.FIFO) {
+                        assertEquals(previous + 1, c);
+                    } else if (policy == Agenda.Policy.LIFO) {
+                        assertEquals(next - 1 - i, c);
+                    }
+                    previous = c;
+                }
+            }
+            int[] rest = agenda.drain();
+            assertEquals(next - polled, rest.length);
+            for (int i = 1; i<rest.length; i++) {
+                if (policy == Agenda.Policy.FIFO) assertEquals(rest[i - 1] + 1, rest[i]);
+                if (policy == Agenda.Policy.LIFO) assertTrue(rest[i - 1] > rest[i]);
+                if (policy == Agenda.Policy.FAN_OUT) assertTrue(rest[i - 1] % 5 >= rest[i] % 5);
+            }
+        }
+    }
+
+    @Test
+    public void pollingAnEmptyAgendaFails() {
+        for (Agenda.Policy policy : Agenda.Policy.values()) {
+            try {
+                agenda(policy).poll();
+                fail();
+            } catch (RuntimeException e) {
+                assertEquals("Unexpected error: polling an empty agenda", e.getMessage());
+            }
+        }
+    }
+}
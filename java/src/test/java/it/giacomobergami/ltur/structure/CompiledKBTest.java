@@ -0,0 +1,169 @@
+/*
+ * CompiledKBTest.java
+ * This file is part of ltur
+ *
+ * Copyright (C) 2018 giacomo
+ *
+ * ltur is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * ltur is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ltur. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package it.giacomobergami.ltur.structure;
+
+import it.giacomobergami.ltur.LTUR;
+import it.giacomobergami.ltur.RandomHornKB;
+import it.giacomobergami.ltur.RandomHornKB.Rule;
+import it.giacomobergami.ltur.structure.atoms.Atom;
+import it.giacomobergami.ltur.structure.atoms.AtomTable;
+import it.giacomobergami.ltur.structure.clauses.HornClause;
+import it.giacomobergami.ltur.structure.graph.LTURGraph;
+import it.giacomobergami.ltur.workload.HornKBGenerator;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CompiledKBTest {
+
+    static List<HornClause> generate(long seed) {
+        List<HornClause> clauses = new ArrayList<>();
+        new HornKBGenerator().setAtoms(2500).setClauses(10000).setSeed(seed).setFactRatio(0.02)
+                .setNegatedHeadRatio(0.01).generate(clauses::add);
+        return clauses;
+    }
+
+    static void assertSameKB(CompiledKB expected, CompiledKB actual) {
+        assertEquals(expected.atoms().size(), actual.atoms().size());
+        for (int x = 0; x<expected.atoms().size(); x++) {
+            assertEquals(expected.atoms().name(x), actual.atoms().name(x));
+        }
+        assertEquals(expected.clauseCount(), actual.clauseCount());
+        for (int c = 0; c<expected.clauseCount(); c++) {
+            assertEquals(expected.clauseBegin(c), actual.clauseBegin(c));
+            assertEquals(expected.clauseEnd(c), actual.clauseEnd(c));
+            assertEquals(expected.head(c), actual.head(c));
+            assertEquals(expected.counter(c), actual.counter(c));
+            for (int i = expected.clauseBegin(c); i<expected.clauseEnd(c); i++) {
+                assertEquals(expected.literal(i), actual.literal(i));
+            }
+        }
+        assertArrayEquals(expected.initialClauses(), actual.initialClauses());
+        LTURGraph g = expected.graph(), h = actual.graph();
+        assertEquals(g.nodes(), h.nodes());
+        assertEquals(g.edges(), h.edges());
+        for (int x = 0; x<g.nodes(); x++) {
+            assertEquals(g.begin(x), h.begin(x));
+            assertEquals(g.end(x), h.end(x));
+        }
+        for (int e = 0; e<g.edges(); e++) {
+            assertEquals(g.target(e), h.target(e));
+            assertEquals(g.clause(e), h.clause(e));
+        }
+    }
+
+    @Test
+    public void offHeapKeepsTheKB() {
+        CompiledKB kb = CompiledKB.compile(generate(2));
+        CompiledKB offHeap = kb.offHeap();
+        assertTrue(offHeap.isOffHeap());
+        assertSameKB(kb, offHeap);
+    }
+
+    @Test
+    public void offHeapBuildKeepsTheKB() {
+        // Enough literals and edges to fill several off-heap blocks
+        HornKBGenerator generator = new HornKBGenerator().setAtoms(20000).setClauses(50000).setSeed(4);
+        CompiledKB kb = generator.compile(), offHeap = generator.compile(true);
+        assertTrue(offHeap.isOffHeap());
+        assertTrue(offHeap.literals().length() > 1 << 16);
+        assertSameKB(kb, offHeap);
+        assertTrue(offHeap.footprint().heapBytes("clause literals") < 1024);
+    }
+
+    @Test
+    public void parallelCompilationMatchesTheSequentialOne() {
+        List<HornClause> clauses = generate(3);
+        assertSameKB(CompiledKB.compile(clauses), CompiledKB.compile(clauses, 4));
+    }
+
+    @Test
+    public void simplificationKeepsTheLeastModel() {
+        int removed = 0;
+        for (int seed = 0; seed<200; seed++) {
+            RandomHornKB g = new RandomHornKB(seed, 8);
+            List<Rule> rules = g.rules(10 + g.random().nextInt(30), 2, 0.1);
+            Simplification simplification = CompiledKB.compile(RandomHornKB.clauses(rules)).simplify();
+            removed += simplification.removedCount();
+            LTUR engine = new LTUR(simplification.kb());
+            for (int q = 0; q<10; q++) {
+                Rule[] facts = {new Rule(g.atom(), false), new Rule(g.atom(), false)};
+                List<Rule> all = RandomHornKB.union(rules, facts);
+                HornClause[] clauses = RandomHornKB.clauses(facts);
+                boolean satisfiable = RandomHornKB.isSatisfiable(all);
+                assertEquals("seed " + seed, !satisfiable, engine.contradicts(clauses));
+                if (!satisfiable) continue;
+                Set<String> model = RandomHornKB.leastModel(all);
+                for (int x = 0; x<8; x++) {
+                    assertEquals("seed " + seed, model.contains("a" + x), engine.entails(new Atom("a" + x), clauses));
+                }
+            }
+        }
+        assertTrue(removed > 0);
+    }
+
+    @Test
+    public void simplificationReportsTheRemovedClauses() {
+        List<HornClause> clauses = Arrays.asList(
+                HornClause.classicHornClause("c", "a", "b"),
+                HornClause.classicHornClause("c", "b", "a"),
+                HornClause.classicHornClause("a", "a", "c"),
+                HornClause.classicHornClause("d", "a"),
+                HornClause.classicHornClause("d", "a", "b"),
+                HornClause.fact("b"),
+                HornClause.classicHornClause("e", "b", "c"),
+                HornClause.classicHornClause("b", "e"),
+                HornClause.negatedHeadHornClause("d", "e"),
+                HornClause.negatedHeadHornClause("d", "e", "c"));
+        Simplification simplification = CompiledKB.compile(clauses).simplify();
+        Simplification.Reason[] reasons = {null, Simplification.Reason.DUPLICATE, Simplification.Reason.TAUTOLOGY,
+                null, Simplification.Reason.SUBSUMED, null, null, Simplification.Reason.SUBSUMED, null,
+                Simplification.Reason.SUBSUMED};
+        int[] causes = {AtomTable.NONE, 0, AtomTable.NONE, AtomTable.NONE, 3, AtomTable.NONE, AtomTable.NONE, 5,
+                AtomTable.NONE, 8};
+        for (int c = 0; c<reasons.length; c++) {
+            assertEquals("clause " + c, reasons[c], simplification.reason(c));
+            assertEquals("clause " + c, causes[c], simplification.cause(c));
+        }
+        assertArrayEquals(new int[]{1}, simplification.removed(Simplification.Reason.DUPLICATE));
+        assertArrayEquals(new int[]{2}, simplification.removed(Simplification.Reason.TAUTOLOGY));
+        assertArrayEquals(new int[]{4, 7, 9}, simplification.removed(Simplification.Reason.SUBSUMED));
+        assertEquals(5, simplification.removedCount());
+
+        CompiledKB original = CompiledKB.compile(clauses), kb = simplification.kb();
+        int[] kept = {0, 3, 5, 6, 8};
+        assertEquals(kept.length, kb.clauseCount());
+        for (int c = 0; c<kept.length; c++) {
+            assertEquals(kept[c], simplification.originalClause(c));
+            assertEquals(original.head(kept[c]), kb.head(c));
+            assertEquals(original.clauseEnd(kept[c]) - original.clauseBegin(kept[c]),
+                    kb.clauseEnd(c) - kb.clauseBegin(c));
+        }
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * FootprintTest.java
+ * This file is part of ltur
+ *
+ * Copyright (C) 2018 giacomo
+ *
+ * ltur is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * ltur is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ltur. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package it.giacomobergami.ltur.structure;
+
+import it.giacomobergami.ltur.LTUR;
+import it.giacomobergami.ltur.structure.atoms.Atom;
+import it.giacomobergami.ltur.structure.atoms.AtomTable;
+import it.giacomobergami.ltur.workload.HornKBGenerator;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class FootprintTest {
+
+    /**
+     * Predicts the footprint of the KB from its counts
+     */
+    private static Footprint estimate(CompiledKB kb) {
+        AtomTable atoms = kb.atoms();
+        long length = 0;
+        for (int x = 2; x<atoms.size(); x++) {
+            length += atoms.name(x).length();
+        }
+        return Footprint.estimate(kb.clauseCount(), atoms.size() - 2, kb.literals().length(),
+                (double) length / Math.max(atoms.size() - 2, 1));
+    }
+
+    /**
+     * The KBs are satisfiable, as the estimate does not include the atoms inferred to be inconsistent
+     */
+    @Test
+    public void estimateBoundsTheFootprint() {
+        for (int clauses : new int[]{10, 1000, 50000}) {
+            for (int seed = 0; seed<3; seed++) {
+                HornKBGenerator generator = new HornKBGenerator().setClauses(clauses).setAtoms(clauses / (seed + 2) + 1)
+                        .setBodyLength(HornKBGenerator.BodyLength.UNIFORM, 0, 2 + seed).setSeed(seed)
+                        .setSatisfiability(HornKBGenerator.Satisfiability.SATISFIABLE);
+                CompiledKB kb = generator.compile();
+                Agenda.Policy policy = Agenda.Policy.values()[seed];
+                LTUR engine = LTUR.BaseModel.of(kb).newEngine();
+                engine.setAgendaPolicy(policy);
+                Footprint fresh = engine.footprint();
+
+                // The query base, the clause definitions and the clause index are built by the first uses
+                engine.query(generator.query(new Random(seed))).assignmentSize();
+                engine.entails(new Atom("goal"));
+                Footprint used = engine.footprint(), estimate = estimate(kb);
+                for (String c : fresh.components()) {
+                    long actual = Math.max(fresh.heapBytes(c), c.equals("trail") ? 0 : used.heapBytes(c));
+                    assertTrue(clauses + " " + policy + " " + c + ": " + actual + " > " + estimate.heapBytes(c),
+                            actual <= estimate.heapBytes(c));
+                }
+                List<String> components = new ArrayList<>(), estimated = new ArrayList<>();
+                used.components().forEach(components::add);
+                estimate.components().forEach(estimated::add);
+                assertEquals(estimated, components);
+                if (clauses >= 1000) assertTrue(estimate.heapBytes() < 2 * used.heapBytes());
+            }
+        }
+    }
+
+    @Test
+    public void compilationEstimateBoundsTheKB() {
+        CompiledKB kb = new HornKBGenerator().setClauses(20000).setAtoms(5000).setSeed(1).compile();
+        Footprint estimate = estimate(kb), compilation = Footprint.estimateCompilation(kb.clauseCount(),
+                kb.atoms().size() - 2, kb.literals().length(), 4.0);
+        for (String c : kb.footprint().components()) {
+            assertTrue(c, kb.footprint().heapBytes(c) <= estimate.heapBytes(c));
+            if (kb.footprint().heapBytes(c) > 0) assertEquals(c, estimate.heapBytes(c), compilation.heapBytes(c));
+        }
+        assertTrue(compilation.heapBytes("compilation buffers") > 0);
+    }
+
+    @Test
+    public void componentsAreSummed() {
+        Footprint f = new Footprint().add("a", 10, 1).add("b", 20, 0).add(new Footprint().add("a", 5, 2));
+        assertEquals(15, f.heapBytes("a"));
+        assertEquals(3, f.offHeapBytes("a"));
+        assertEquals(0, f.heapBytes("c"));
+        assertEquals(35, f.heapBytes());
+        assertEquals(3, f.offHeapBytes());
+        assertEquals(38, f.totalBytes());
+        assertTrue(f.toString().endsWith("total: 35 bytes on heap, 3 off-heap"));
+        assertEquals(24, Footprint.array(2, 4));
+        assertEquals(16, Footprint.object(4, 0));
+    }
+}
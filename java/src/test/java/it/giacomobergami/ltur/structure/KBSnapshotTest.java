@@ -0,0 +1,120 @@
+/*
+ * KBSnapshotTest.java
+ * This file is part of ltur
+ *
+ * Copyright (C) 2018 giacomo
+ *
+ * ltur is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * ltur is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ltur. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package it.giacomobergami.ltur.structure;
+
+import it.giacomobergami.ltur.LTUR;
+import it.giacomobergami.ltur.structure.atoms.Atom;
+import it.giacomobergami.ltur.structure.clauses.HornClause;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class KBSnapshotTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Saves the KB, and checks that it is loaded back both on the heap and mapped
+     * @return  The mapped KB
+     */
+    private CompiledKB roundTrip(CompiledKB kb) throws IOException {
+        Path file = folder.newFile().toPath();
+        kb.save(file);
+        CompiledKB heap = CompiledKB.load(file), mapped = CompiledKB.load(file, true);
+        assertFalse(heap.isOffHeap());
+        assertTrue(mapped.isOffHeap());
+        CompiledKBTest.assertSameKB(kb, heap);
+        CompiledKBTest.assertSameKB(kb, mapped);
+        return mapped;
+    }
+
+    @Test
+    public void snapshotRoundTrip() throws IOException {
+        CompiledKB kb = CompiledKB.compile(CompiledKBTest.generate(1));
+        CompiledKB mapped = roundTrip(kb);
+
+        LTUR engine = new LTUR(kb), loaded = new LTUR(mapped);
+        for (int x = 2; x<kb.atoms().size(); x += 97) {
+            Atom goal = new Atom(kb.atoms().name(x));
+            assertEquals(engine.entails(goal), loaded.entails(goal));
+        }
+        assertEquals(engine.contradicts(), loaded.contradicts());
+    }
+
+    @Test
+    public void offHeapKBRoundTrip() throws IOException {
+        roundTrip(CompiledKB.compile(CompiledKBTest.generate(2)).offHeap());
+    }
+
+    @Test
+    public void smallKBRoundTrip() throws IOException {
+        roundTrip(CompiledKB.EMPTY);
+        // Names of 1 to 3 bytes in UTF-8, so that the dictionary needs padding
+        roundTrip(CompiledKB.compile(Arrays.asList(HornClause.fact("a"), HornClause.classicHornClause("\u00e8", "a"),
+                HornClause.negatedHeadHornClause("\u20ac", "\u00e8"))));
+    }
+
+    @Test
+    public void invalidSnapshotsAreRejected() throws IOException {
+        Path file = folder.newFile().toPath();
+        CompiledKB.compile(CompiledKBTest.generate(3)).save(file);
+        byte[] bytes = Files.readAllBytes(file);
+
+        Path truncated = folder.newFile().toPath();
+        Files.write(truncated, Arrays.copyOf(bytes, bytes.length - 4));
+        assertRejected(truncated, "Truncated or corrupted");
+
+        Path version = folder.newFile().toPath();
+        byte[] newer = bytes.clone();
+        ByteBuffer.wrap(newer).order(ByteOrder.LITTLE_ENDIAN).putInt(4, KBSnapshot.VERSION + 1);
+        Files.write(version, newer);
+        assertRejected(version, "Unsupported snapshot version");
+
+        Path other = folder.newFile().toPath();
+        Files.write(other, Arrays.copyOf("a -> b".getBytes("UTF-8"), 64));
+        assertRejected(other, "Not an LTUR snapshot");
+        assertRejected(folder.newFile().toPath(), "Not an LTUR snapshot");
+    }
+
+    private static void assertRejected(Path file, String message) {
+        for (boolean offHeap : new boolean[]{false, true}) {
+            try {
+                CompiledKB.load(file, offHeap);
+                fail(message);
+            } catch (IOException e) {
+                assertTrue(e.getMessage(), e.getMessage().startsWith(message));
+            }
+        }
+    }
+}